@@ -1,22 +1,33 @@
 package com.hsjry.plutus.sdk.aspect;
 
+import com.aliyun.openservices.ons.api.SendResult;
 import com.hsjry.plutus.sdk.component.EnvComponent;
+import com.hsjry.plutus.sdk.mq.AsyncSendExecutor;
+import com.hsjry.plutus.sdk.mq.BatchSender;
+import com.hsjry.plutus.sdk.mq.DelayScheduler;
 import com.hsjry.plutus.sdk.mq.MqEntity;
+import com.hsjry.plutus.sdk.mq.Outbox;
+import com.hsjry.plutus.sdk.mq.ProducerRouteCache;
 import com.hsjry.plutus.sdk.mq.Producer;
+import com.hsjry.plutus.sdk.mq.ShardingKeySelector;
 import com.hsjry.plutus.sdk.utils.AopTargetUtils;
-import lombok.Data;
+import com.hsjry.plutus.sdk.utils.MessageUtils;
+import com.hsjry.plutus.sdk.utils.UUIDUtil;
 import org.apache.rocketmq.common.message.Message;
-import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Pointcut;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 拦截消息发送BaseProducer类的方法调用。
@@ -34,6 +45,24 @@ public class BaseProducerAspect {
     @Autowired
     private Producer producer;
 
+    @Autowired
+    private ProducerRouteCache producerRouteCache;
+
+    @Autowired
+    private SendMethodTable sendMethodTable;
+
+    @Autowired
+    private AsyncSendExecutor asyncSendExecutor;
+
+    @Autowired
+    private BatchSender batchSender;
+
+    @Autowired
+    private DelayScheduler delayScheduler;
+
+    @Autowired
+    private Outbox outbox;
+
     /**
      * 切入点为BaseProducer的所有public方法。
      */
@@ -55,8 +84,8 @@ public class BaseProducerAspect {
             return joinpoint.proceed();
         }
 
-        logger.info("当前环境为开发或者测试环境：{}，消息服务走线下服务。",envComponent.getCurActiveProfile());
-        logger.info(">>>>>>>>>>>>拦截BaseProducer类方法调用切入点");
+        logger.debug("当前环境为开发或者测试环境：{}，消息服务走线下服务。",envComponent.getCurActiveProfile());
+        logger.debug(">>>>>>>>>>>>拦截BaseProducer类方法调用切入点");
 
         // 参数列表
         Object args[] = joinpoint.getArgs();
@@ -67,32 +96,77 @@ public class BaseProducerAspect {
         // 拦截消息生产者消息发送
         Object baseProducer = joinpoint.getTarget();
 
-        // 取得该方法的参数
-        Params params = this.getParams(joinpoint);
-
-        // 消息主题
-        String topic = (String) AopTargetUtils.getFieldValue(baseProducer, "topic");
-        Properties properties = (Properties) AopTargetUtils.getMethodValue(baseProducer,"getProperties");
-        // 生产者id
-        String pid = AopTargetUtils.getPid(properties, topic);
+        // 取得该方法的参数位置描述
+        SendMethodSpec spec = sendMethodTable.get(((MethodSignature) joinpoint.getSignature()).getMethod());
+        if (spec == null) {
+            logger.error("不存在的方法调用:{},{} ", joinpoint.getSignature().getName(), args);
+            throw new RuntimeException("不支持的消息发送方法：" + joinpoint.getSignature().getName());
+        }
 
-        MqEntity mqEntity = this.producer.getMqProductorInfo(pid);
+        // 取得启动时已解析的路由信息
+        MqEntity mqEntity = this.getRoute(baseProducer);
+        // 延迟启动模式下首次发送时启动生产者
+        producer.ensureStarted(mqEntity);
         try {
+            // 按生产者和主题限速，超过速率时阻塞等待
+            mqEntity.getSendLimiter().acquireRate(spec.isBatch() ? spec.getBatch(args).size() : 1);
+            if(spec.isBatch()){
+                return this.sendBatch(mqEntity, spec, args);
+            }
+
             Message rocketMsg = new Message();
-            rocketMsg.setBody(params.getContent().getBytes("UTF-8"));
-            rocketMsg.setKeys(params.getKeyId());
+            rocketMsg.setBody(spec.getBody(args));
+            rocketMsg.setKeys(spec.getKeyId(args));
             // 为了区分不同的环境（TEST1,TEST2,DEV)而不产生干扰
             // 若为开发环境则默认为只能由本机消费
-            rocketMsg.setTopic(envComponent.getCurActiveProfile() + "_" + topic);
-            rocketMsg.setTags(params.getTag());
-            rocketMsg.setDelayTimeLevel(params.getDelayTime());
-            logger.info("拦截消息分组：{}，生产者主题：{}",envComponent.getGroup(pid), rocketMsg.getTopic());
-            // 方法名
-            String methodName = joinpoint.getSignature().getName();
-            if("sendMsgOneway".equals(methodName)){
+            rocketMsg.setTopic(mqEntity.getRocketTopic());
+            rocketMsg.setTags(spec.getTag(args));
+            // 延时换算为线下的延时级别，精确延时方式下差额在本地持有
+            long holdMillis = delayScheduler.apply(rocketMsg, spec.getDelayMillis(args));
+            // 超过阈值的消息体按主题配置压缩
+            mqEntity.getTopicCodec().encode(rocketMsg);
+            logger.debug("拦截消息分组：{}，生产者主题：{}",mqEntity.getGroup(), rocketMsg.getTopic());
+            if(holdMillis > 0){
+                CompletableFuture<org.apache.rocketmq.client.producer.SendResult> future = delayScheduler.hold(mqEntity, rocketMsg, holdMillis);
+                return this.toAsyncResult(future, rocketMsg, spec);
+            }else if(spec.isOrdered()){
+                // 顺序消息：同一分区键发往同一队列
+                rocketMsg.putUserProperty(ShardingKeySelector.PROPERTY_SHARDING_KEY, spec.getShardingKey(args));
+                mqEntity.getSendPolicy().execute(mqEntity.getDefaultMQProducer().getSendMsgTimeout(),
+                        timeout -> mqEntity.getDefaultMQProducer().send(rocketMsg, ShardingKeySelector.INSTANCE,
+                                spec.getShardingKey(args), timeout));
+            }else if(spec.isOneway()){
                 mqEntity.getDefaultMQProducer().sendOneway(rocketMsg);
+            }else if(outbox.isEnabled()){
+                // 本地出站箱：刷盘后即返回，由后台转发到broker
+                if(spec.isFuture()){
+                    return this.toAsyncResult(outbox.appendForResult(mqEntity, rocketMsg), rocketMsg, spec);
+                }
+                CompletableFuture<Void> flushed = outbox.append(mqEntity, rocketMsg);
+                if(spec.isAsync()){
+                    flushed.whenComplete((v, e) -> {
+                        if (e != null) {
+                            logger.error("消息写入出站日志失败，topic:{}, keys:{}, e:{}", rocketMsg.getTopic(), rocketMsg.getKeys(), e);
+                        }
+                    });
+                }else{
+                    flushed.join();
+                }
+            }else if(batchSender.isAutoBatchEnabled() && rocketMsg.getDelayTimeLevel() == 0){
+                // 自动攒批：同一主题的消息合并为批量发送，同步发送等待本条消息的结果
+                CompletableFuture<org.apache.rocketmq.client.producer.SendResult> future =
+                        batchSender.submit(mqEntity, rocketMsg);
+                if(spec.isAsync()){
+                    return this.toAsyncResult(future, rocketMsg, spec);
+                }
+                future.join();
+            }else if(spec.isAsync()){
+                CompletableFuture<org.apache.rocketmq.client.producer.SendResult> future =
+                        asyncSendExecutor.send(mqEntity.getDefaultMQProducer(), rocketMsg, mqEntity.getSendLimiter());
+                return this.toAsyncResult(future, rocketMsg, spec);
             }else{
-                mqEntity.getDefaultMQProducer().send(rocketMsg);
+                // 按主题的发送策略重试或对冲发送
+                mqEntity.getSendPolicy().send(mqEntity.getDefaultMQProducer(), rocketMsg);
             }
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -101,93 +175,118 @@ public class BaseProducerAspect {
         return true;
     }
 
-
     /**
-     * 获取方法的参数值。
+     * 异步发送的返回值，sendMsgAsy返回true，sendMsgFuture返回阿里云sdk的发送结果future。
      *
-     * @param joinpoint
+     * @param future
+     * @param rocketMsg
+     * @param spec
      * @return
      */
-    private Params getParams(JoinPoint joinpoint){
-        Params params = new Params();
-        Object args[] = joinpoint.getArgs();
-
-        // 方法名
-        String methodName = joinpoint.getSignature().getName();
-
-        // 拦截消息生产者消息发送
-        Object baseProducer = joinpoint.getTarget();
-        if("sendMsg".equals(methodName)||"sendMsgAsy".equals(methodName)||"sendMsgOneway".equals(methodName)){
-            // 方法：public void sendMsg(String content, String tag, int delayTime)
-            if(args.length == 3){
-                params.setContent((String)args[0]);
-//                params.setKeyId((String)args[1]);
-                params.setTag((String)args[1]);
-                params.setDelayTime((int)args[2]);
-                return params;
-            }
-
-            // 方法：public void sendMsg(String content, String tag, String keyId, int delayTime)
-            if(args.length == 4){
-                params.setContent((String)args[0]);
-                params.setTag((String)args[1]);
-                params.setKeyId((String)args[2]);
-                params.setDelayTime((int)args[3]);
-                return params;
-            }
-
-            // 不存在的方法调用忽略
-            logger.error("不存在的方法调用:{},{} ",methodName, args);
-            return params;
+    private Object toAsyncResult(CompletableFuture<org.apache.rocketmq.client.producer.SendResult> future,
+                                 Message rocketMsg, SendMethodSpec spec) {
+        if (spec.isFuture()) {
+            return future.thenApply(BaseProducerAspect::toOnsResult);
         }
 
-        // 方法：public void sendSecondMsg(String content, String keyId, int second)
-        if("sendSecondMsg".equals(methodName)){
-            if(args.length == 3) {
-                params.setKeyId((String) args[1]);
-                params.setContent((String) args[0]);
-                params.setDelayTime((int) args[2]);
-                return params;
-            }
-
-            // 方法：public void sendSecondMsg(String content, String type, String keyId, int delayTime)
-            if(args.length == 4){
-                params.setContent((String)args[0]);
-                params.setTag((String)args[1]);
-                params.setKeyId((String)args[2]);
-                params.setDelayTime((int)args[3]);
+        future.whenComplete((sendResult, e) -> {
+            if (e != null) {
+                logger.error("异步消息发送失败，topic:{}, keys:{}, e:{}", rocketMsg.getTopic(), rocketMsg.getKeys(), e);
             }
-        }
+        });
+        return true;
+    }
 
-        // 方法：public void sendMsgMillionSecond(String content, String keyId, long delayTime)
-        // 方法：public void sendParseMsg(String content,String keyId,int second)
-        // 方法：public void sendGrabMsg(String content,String keyId,int second)
-        if("sendMsgMillionSecond".equals(methodName)
-                || "sendGrabMsg".equals(methodName)
-                || "sendParseMsg".equals(methodName)){
-            params.setContent((String)args[0]);
-            params.setKeyId((String)args[1]);
-            if(args[2] instanceof Long){
-                params.setDelayTime(((Long)args[2]).intValue());
-            }else{
-                params.setDelayTime((int)args[2]);
+    /**
+     * 批量发送，每条消息单独返回阿里云sdk的发送结果。
+     *
+     * @param mqEntity
+     * @param spec
+     * @param args
+     * @return
+     * @throws Exception
+     */
+    private List<CompletableFuture<SendResult>> sendBatch(MqEntity mqEntity, SendMethodSpec spec, Object[] args)
+            throws Exception {
+        List<?> items = spec.getBatch(args);
+        List<Message> rocketMsgs = new ArrayList<>(items.size());
+        for (Object item : items) {
+            Message rocketMsg = new Message();
+            rocketMsg.setTopic(mqEntity.getRocketTopic());
+            if (item instanceof com.aliyun.openservices.ons.api.Message) {
+                // 方法：sendBatch(List<Message> messages)
+                com.aliyun.openservices.ons.api.Message onsMsg = (com.aliyun.openservices.ons.api.Message) item;
+                rocketMsg.setBody(onsMsg.getBody());
+                if (onsMsg.getTag() != null) {
+                    rocketMsg.setTags(onsMsg.getTag());
+                }
+                if (onsMsg.getKey() != null) {
+                    rocketMsg.setKeys(onsMsg.getKey());
+                }
+                for (String name : onsMsg.getUserProperties().stringPropertyNames()) {
+                    rocketMsg.putUserProperty(name, onsMsg.getUserProperties(name));
+                }
+                if (onsMsg.getShardingKey() != null) {
+                    rocketMsg.putUserProperty(ShardingKeySelector.PROPERTY_SHARDING_KEY, onsMsg.getShardingKey());
+                }
+                if (onsMsg.getStartDeliverTime() > 0) {
+                    // 批量发送不在本地持有，取最接近的延时级别
+                    long delayMillis = onsMsg.getStartDeliverTime() - System.currentTimeMillis();
+                    rocketMsg.setDelayTimeLevel(delayScheduler.nearestLevel(delayMillis));
+                    rocketMsg.putUserProperty(DelayScheduler.PROPERTY_DELIVER_TIME, String.valueOf(onsMsg.getStartDeliverTime()));
+                }
+            } else {
+                // 方法：sendBatch(List<String> contents, String tag)
+                rocketMsg.setBody(MessageUtils.encode((String) item));
+                rocketMsg.setTags(spec.getTag(args));
+                rocketMsg.setKeys(UUIDUtil.getUUID());
             }
-
-            return params;
+            mqEntity.getTopicCodec().encode(rocketMsg);
+            rocketMsgs.add(rocketMsg);
         }
 
+        List<CompletableFuture<org.apache.rocketmq.client.producer.SendResult>> futures =
+                batchSender.send(mqEntity, rocketMsgs);
+        List<CompletableFuture<SendResult>> results = new ArrayList<>(futures.size());
+        futures.forEach(future -> results.add(future.thenApply(BaseProducerAspect::toOnsResult)));
+        return results;
+    }
 
-        logger.error("不存在的方法调用:{},{} ",methodName, args);
-        return params;
+    /**
+     * rocketMq的发送结果转为阿里云sdk的发送结果。
+     */
+    private static SendResult toOnsResult(org.apache.rocketmq.client.producer.SendResult sendResult) {
+        SendResult onsResult = new SendResult();
+        onsResult.setMessageId(sendResult.getMsgId());
+        onsResult.setTopic(sendResult.getMessageQueue().getTopic());
+        return onsResult;
     }
 
 
-    @Data
-    class Params{
-        private String content;
-        private String tag;
-        private String keyId;
-        private int delayTime;
+    /**
+     * 取得生产者实例的路由信息。
+     * 正常情况下启动时已登记，直接查缓存；未登记的实例（如启动后才创建的bean）退回反射解析一次后再缓存。
+     *
+     * @param baseProducer
+     * @return
+     */
+    private MqEntity getRoute(Object baseProducer) {
+        MqEntity mqEntity = producerRouteCache.get(baseProducer);
+        if (mqEntity != null) {
+            return mqEntity;
+        }
+
+        // 消息主题
+        String topic = (String) AopTargetUtils.getFieldValue(baseProducer, "topic");
+        Properties properties = (Properties) AopTargetUtils.getMethodValue(baseProducer, "getProperties");
+        // 生产者id
+        String pid = AopTargetUtils.getPid(properties, topic);
+        mqEntity = this.producer.getMqProductorInfo(pid, envComponent.getCurActiveProfile() + "_" + topic);
+        if (mqEntity == null) {
+            throw new RuntimeException("没有找到消息生产者：" + pid + "，主题：" + topic);
+        }
+        producerRouteCache.put(baseProducer, mqEntity);
+        return mqEntity;
     }
 
     public static void main(String[] args){
@@ -1,19 +1,18 @@
 package com.hsjry.plutus.sdk.aspect;
 
-import com.aliyun.openservices.ons.api.transaction.TransactionStatus;
 import com.hsjry.plutus.sdk.component.EnvComponent;
+import com.hsjry.plutus.sdk.mq.LocalTransactionArg;
 import com.hsjry.plutus.sdk.mq.MqEntity;
+import com.hsjry.plutus.sdk.mq.ProducerRouteCache;
 import com.hsjry.plutus.sdk.mq.TransactionProducer;
 import com.hsjry.plutus.sdk.utils.AopTargetUtils;
-import lombok.Data;
-import org.apache.rocketmq.client.producer.LocalTransactionExecuter;
-import org.apache.rocketmq.client.producer.LocalTransactionState;
 import org.apache.rocketmq.common.message.Message;
-import org.aspectj.lang.JoinPoint;
+import org.apache.rocketmq.common.message.MessageConst;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Pointcut;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -38,6 +37,12 @@ public class BaseTransactionProducerAspect {
     @Autowired
     private TransactionProducer transactionProducer;
 
+    @Autowired
+    private ProducerRouteCache producerRouteCache;
+
+    @Autowired
+    private SendMethodTable sendMethodTable;
+
     /**
      * 切入点为BaseProducer的所有public方法。
      */
@@ -59,8 +64,8 @@ public class BaseTransactionProducerAspect {
             return joinpoint.proceed();
         }
 
-        logger.info("当前环境为开发或者测试环境：{}，事务消息服务走线下服务。", envComponent.getCurActiveProfile());
-        logger.info(">>>>>>>>>>>>拦截BaseTransactionProducer类方法调用切入点");
+        logger.debug("当前环境为开发或者测试环境：{}，事务消息服务走线下服务。", envComponent.getCurActiveProfile());
+        logger.debug(">>>>>>>>>>>>拦截BaseTransactionProducer类方法调用切入点");
 
         // 参数列表
         Object args[] = joinpoint.getArgs();
@@ -71,46 +76,32 @@ public class BaseTransactionProducerAspect {
         // 拦截消息生产者消息发送
         Object baseProducer = joinpoint.getTarget();
 
-        // 取得该方法的参数
-        Params params = this.getParams(joinpoint);
-
-        // 消息主题
-        String topic = (String) AopTargetUtils.getFieldValue(baseProducer, "topic");
-        Properties properties = (Properties) AopTargetUtils.getMethodValue(baseProducer, "getProperties");
-        // 生产者id
-        String pid = AopTargetUtils.getPid(properties, topic);
+        // 取得该方法的参数位置描述
+        SendMethodSpec spec = sendMethodTable.get(((MethodSignature) joinpoint.getSignature()).getMethod());
+        if (spec == null) {
+            logger.error("不存在的方法调用:{},{} ", joinpoint.getSignature().getName(), args);
+            throw new RuntimeException("不支持的事务消息发送方法：" + joinpoint.getSignature().getName());
+        }
+        com.aliyun.openservices.ons.api.transaction.LocalTransactionExecuter executer = spec.getExecuter(args);
 
-        MqEntity mqEntity = this.transactionProducer.getMqProductorInfo(pid);
+        // 取得启动时已解析的路由信息
+        MqEntity mqEntity = this.getRoute(baseProducer);
         try {
             Message rocketMsg = new Message();
-            rocketMsg.setBody(params.getContent().getBytes("UTF-8"));
-            rocketMsg.setKeys(params.getKeyId());
+            rocketMsg.setBody(spec.getBody(args));
+            rocketMsg.setKeys(spec.getKeyId(args));
             // 为了区分不同的环境（TEST1,TEST2,DEV)而不产生干扰
             // 若为开发环境则默认为只能由本机消费
-            rocketMsg.setTopic(envComponent.getCurActiveProfile() + "_" + topic);
-            rocketMsg.setTags(params.getTag());
-            rocketMsg.setDelayTimeLevel(params.getDelayTime());
-            logger.info("拦截事务消息分组：{}，生产者主题：{}", envComponent.getGroup(pid), rocketMsg.getTopic());
-            mqEntity.getTransactionMQProducer().sendMessageInTransaction(rocketMsg, new LocalTransactionExecuter() {
-                @Override
-                public LocalTransactionState executeLocalTransactionBranch(Message message, Object o) {
-                    com.aliyun.openservices.ons.api.Message messageOns = new com.aliyun.openservices.ons.api.Message();
-                    messageOns.setBody(message.getBody());
-                    TransactionStatus transactionStatus = params.getExecuter().execute(messageOns, o);
-                    LocalTransactionState localTransactionState;
-                    switch (transactionStatus) {
-                        case CommitTransaction:
-                            localTransactionState = LocalTransactionState.COMMIT_MESSAGE;
-                            break;
-                        case RollbackTransaction:
-                            localTransactionState = LocalTransactionState.ROLLBACK_MESSAGE;
-                            break;
-                        default:
-                            localTransactionState = LocalTransactionState.UNKNOW;
-                    }
-                    return localTransactionState;
-                }
-            }, null);
+            rocketMsg.setTopic(mqEntity.getRocketTopic());
+            rocketMsg.setTags(spec.getTag(args));
+            if (mqEntity.getCheckImmunityTimeInSeconds() != null) {
+                rocketMsg.putUserProperty(MessageConst.PROPERTY_CHECK_IMMUNITY_TIME_IN_SECONDS,
+                        mqEntity.getCheckImmunityTimeInSeconds());
+            }
+            logger.debug("拦截事务消息分组：{}，生产者主题：{}", mqEntity.getGroup(), rocketMsg.getTopic());
+            // 本地事务由事务生产者的TransactionListener执行，调用方的参数原样传给本地事务执行器
+            mqEntity.getTransactionMQProducer().sendMessageInTransaction(rocketMsg,
+                    new LocalTransactionArg(executer, spec.getTransactionArg(args)));
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -120,54 +111,29 @@ public class BaseTransactionProducerAspect {
 
 
     /**
-     * 获取方法的参数值。
+     * 取得生产者实例的路由信息。
+     * 正常情况下启动时已登记，直接查缓存；未登记的实例（如启动后才创建的bean）退回反射解析一次后再缓存。
      *
-     * @param joinpoint
+     * @param baseProducer
      * @return
      */
-    private Params getParams(JoinPoint joinpoint) {
-        Params params = new Params();
-        Object args[] = joinpoint.getArgs();
-
-        // 方法名
-        String methodName = joinpoint.getSignature().getName();
-
-        // 拦截消息生产者消息发送
-        Object baseProducer = joinpoint.getTarget();
-        if ("sendMsg".equals(methodName) || "sendMsgAsy".equals(methodName) || "sendMsgOneway".equals(methodName)) {
-            // 方法：public void sendMsg(String content, String tag, int delayTime)
-            if (args.length == 3) {
-                params.setContent((String) args[0]);
-                params.setTag((String) args[1]);
-                params.setExecuter((com.aliyun.openservices.ons.api.transaction.LocalTransactionExecuter) args[2]);
-                return params;
-            }
-
-            // 方法：public void sendMsg(String content, String tag, String keyId, int delayTime)
-            if (args.length == 4) {
-                params.setContent((String) args[0]);
-                params.setTag((String) args[1]);
-                params.setKeyId((String) args[2]);
-                params.setExecuter((com.aliyun.openservices.ons.api.transaction.LocalTransactionExecuter) args[3]);
-                return params;
-            }
-
-            // 不存在的方法调用忽略
-            logger.error("不存在的方法调用:{},{} ", methodName, args);
-            return params;
+    private MqEntity getRoute(Object baseProducer) {
+        MqEntity mqEntity = producerRouteCache.get(baseProducer);
+        if (mqEntity != null) {
+            return mqEntity;
         }
-        logger.error("不存在的方法调用:{},{} ", methodName, args);
-        return params;
-    }
 
-
-    @Data
-    class Params {
-        private String content;
-        private String tag;
-        private String keyId;
-        private int delayTime;
-        private com.aliyun.openservices.ons.api.transaction.LocalTransactionExecuter executer;
+        // 消息主题
+        String topic = (String) AopTargetUtils.getFieldValue(baseProducer, "topic");
+        Properties properties = (Properties) AopTargetUtils.getMethodValue(baseProducer, "getProperties");
+        // 生产者id
+        String pid = AopTargetUtils.getPid(properties, topic);
+        mqEntity = this.transactionProducer.getMqProductorInfo(pid, envComponent.getCurActiveProfile() + "_" + topic);
+        if (mqEntity == null) {
+            throw new RuntimeException("没有找到事务消息生产者：" + pid + "，主题：" + topic);
+        }
+        producerRouteCache.put(baseProducer, mqEntity);
+        return mqEntity;
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,177 @@
+package com.hsjry.plutus.sdk.aspect;
+
+import com.hsjry.plutus.sdk.serializer.MessageSerializer;
+import com.hsjry.plutus.sdk.utils.MessageUtils;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息发送方法的参数位置描述。
+ * 启动时按方法签名解析一次，发送时按下标直接从参数数组中取值，不再比较方法名和参数个数。
+ *
+ * @author qyf
+ * @Date 2019/8/5
+ */
+public final class SendMethodSpec {
+    /** 参数不存在时的下标 */
+    static final int NONE = -1;
+
+    /** 消息内容类型：String */
+    static final int BODY_STRING = 0;
+    /** 消息内容类型：byte[] */
+    static final int BODY_BYTES = 1;
+    /** 消息内容类型：ByteBuffer */
+    static final int BODY_BUFFER = 2;
+    /** 消息内容类型：对象（按序列化参数序列化） */
+    static final int BODY_OBJECT = 3;
+
+    /** 方法名 */
+    private final String methodName;
+    /** 消息内容下标 */
+    private final int contentIndex;
+    /** 消息内容类型 */
+    private final int bodyType;
+    /** 消息标签下标 */
+    private final int tagIndex;
+    /** 消息key下标 */
+    private final int keyIndex;
+    /** 延时下标 */
+    private final int delayIndex;
+    /** 延时单位 */
+    private final TimeUnit delayUnit;
+    /** 本地事务执行器下标 */
+    private final int executerIndex;
+    /** 序列化方式下标 */
+    private final int serializerIndex;
+    /** 顺序消息分区键下标 */
+    private final int shardingKeyIndex;
+    /** 是否单向发送 */
+    private final boolean oneway;
+    /** 是否异步发送 */
+    private final boolean async;
+    /** 是否返回发送结果的future */
+    private final boolean future;
+    /** 是否批量发送（内容参数为消息列表） */
+    private final boolean batch;
+
+    SendMethodSpec(String methodName, int contentIndex, int bodyType, int tagIndex, int keyIndex, int delayIndex,
+                   int executerIndex, boolean future) {
+        this(methodName, contentIndex, bodyType, tagIndex, keyIndex, delayIndex, executerIndex, NONE, NONE, future);
+    }
+
+    SendMethodSpec(String methodName, int contentIndex, int bodyType, int tagIndex, int keyIndex, int delayIndex,
+                   int executerIndex, int serializerIndex, int shardingKeyIndex, boolean future) {
+        this.serializerIndex = serializerIndex;
+        this.shardingKeyIndex = shardingKeyIndex;
+        this.methodName = methodName;
+        this.contentIndex = contentIndex;
+        this.bodyType = bodyType;
+        this.tagIndex = tagIndex;
+        this.keyIndex = keyIndex;
+        this.delayIndex = delayIndex;
+        this.delayUnit = delayUnit(methodName);
+        this.executerIndex = executerIndex;
+        this.oneway = "sendMsgOneway".equals(methodName);
+        this.future = future;
+        this.async = future || "sendMsgAsy".equals(methodName);
+        this.batch = "sendBatch".equals(methodName);
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    public boolean isOneway() {
+        return oneway;
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    public boolean isFuture() {
+        return future;
+    }
+
+    public boolean isBatch() {
+        return batch;
+    }
+
+    /**
+     * 是否顺序发送（按分区键选择队列）。
+     */
+    public boolean isOrdered() {
+        return shardingKeyIndex != NONE;
+    }
+
+    public String getShardingKey(Object[] args) {
+        return shardingKeyIndex == NONE ? null : (String) args[shardingKeyIndex];
+    }
+
+    /**
+     * 取得批量发送的消息列表（阿里云sdk的Message或消息内容String）。
+     */
+    public List<?> getBatch(Object[] args) {
+        return (List<?>) args[contentIndex];
+    }
+
+    /**
+     * 取得消息内容，String按统一字符集编码，byte[]直接使用，对象按传入的序列化方式序列化。
+     */
+    public byte[] getBody(Object[] args) {
+        Object content = args[contentIndex];
+        if (bodyType == BODY_BYTES) {
+            return (byte[]) content;
+        }
+        if (bodyType == BODY_OBJECT) {
+            return ((MessageSerializer) args[serializerIndex]).serialize(content);
+        }
+        if (bodyType == BODY_BUFFER) {
+            return MessageUtils.toBytes((ByteBuffer) content);
+        }
+        return MessageUtils.encode((String) content);
+    }
+
+    public String getTag(Object[] args) {
+        return tagIndex == NONE ? null : (String) args[tagIndex];
+    }
+
+    public String getKeyId(Object[] args) {
+        return keyIndex == NONE ? null : (String) args[keyIndex];
+    }
+
+    /**
+     * 取得延时毫秒数，延时参数的单位与线上一致：
+     * sendMsgMillionSecond为毫秒，sendSecondMsg、sendGrabMsg、sendParseMsg为秒，其余为分钟。
+     */
+    public long getDelayMillis(Object[] args) {
+        return delayIndex == NONE ? 0 : delayUnit.toMillis(((Number) args[delayIndex]).longValue());
+    }
+
+    /**
+     * 按方法名取得延时参数的单位。
+     */
+    private static TimeUnit delayUnit(String methodName) {
+        if ("sendMsgMillionSecond".equals(methodName)) {
+            return TimeUnit.MILLISECONDS;
+        }
+        if ("sendSecondMsg".equals(methodName) || "sendGrabMsg".equals(methodName) || "sendParseMsg".equals(methodName)) {
+            return TimeUnit.SECONDS;
+        }
+        return TimeUnit.MINUTES;
+    }
+
+    public com.aliyun.openservices.ons.api.transaction.LocalTransactionExecuter getExecuter(Object[] args) {
+        return executerIndex == NONE ? null
+                : (com.aliyun.openservices.ons.api.transaction.LocalTransactionExecuter) args[executerIndex];
+    }
+
+    /**
+     * 传给本地事务执行器的参数，紧跟在执行器之后，没有时为null。
+     */
+    public Object getTransactionArg(Object[] args) {
+        return executerIndex == NONE || executerIndex + 1 >= args.length ? null : args[executerIndex + 1];
+    }
+}
@@ -0,0 +1,203 @@
+package com.hsjry.plutus.sdk.aspect;
+
+import com.aliyun.openservices.ons.api.transaction.LocalTransactionExecuter;
+import com.hsjry.plutus.sdk.jms.BaseProducer;
+import com.hsjry.plutus.sdk.jms.BaseTransactionProducer;
+import com.hsjry.plutus.sdk.serializer.MessageSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hsjry.plutus.sdk.aspect.SendMethodSpec.BODY_BUFFER;
+import static com.hsjry.plutus.sdk.aspect.SendMethodSpec.BODY_BYTES;
+import static com.hsjry.plutus.sdk.aspect.SendMethodSpec.BODY_OBJECT;
+import static com.hsjry.plutus.sdk.aspect.SendMethodSpec.BODY_STRING;
+import static com.hsjry.plutus.sdk.aspect.SendMethodSpec.NONE;
+
+/**
+ * 消息发送方法分派表。
+ * 启动时为BaseProducer、BaseTransactionProducer及其子类的每个public发送方法编译一份参数位置描述，
+ * 切面拦截时按Method直接查表取参数。
+ *
+ * @author qyf
+ * @Date 2019/8/5
+ */
+@Component
+public class SendMethodTable {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * 不是发送方法的占位描述，ConcurrentHashMap不能存null
+     */
+    private static final SendMethodSpec NOT_SEND_METHOD = new SendMethodSpec("", NONE, NONE, NONE, NONE, NONE, NONE, false);
+
+    /**
+     * 发送方法 -> 参数位置描述，不是发送方法的为NOT_SEND_METHOD
+     */
+    private final Map<Method, SendMethodSpec> specMap = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        this.register(BaseProducer.class);
+        this.register(BaseTransactionProducer.class);
+    }
+
+    /**
+     * 登记生产者类（含继承来的方法）的所有public发送方法。
+     *
+     * @param producerClass
+     */
+    public void register(Class<?> producerClass) {
+        for (Method method : producerClass.getMethods()) {
+            if (Modifier.isStatic(method.getModifiers()) || specMap.containsKey(method)) {
+                continue;
+            }
+            SendMethodSpec spec = this.compile(method);
+            specMap.put(method, spec == null ? NOT_SEND_METHOD : spec);
+        }
+    }
+
+    /**
+     * 取得发送方法的参数位置描述，不是发送方法时返回null。
+     *
+     * @param method
+     * @return
+     */
+    public SendMethodSpec get(Method method) {
+        SendMethodSpec spec = specMap.get(method);
+        if (spec == null) {
+            // 启动时未登记的类（如运行中新建的子类bean），补编译一次，不是发送方法的也缓存
+            spec = this.compile(method);
+            specMap.put(method, spec == null ? NOT_SEND_METHOD : spec);
+        }
+        return spec == NOT_SEND_METHOD ? null : spec;
+    }
+
+    /**
+     * 消息内容参数的类型，不是消息内容时返回NONE。
+     */
+    private static int bodyType(Class<?> type) {
+        if (type == String.class) {
+            return BODY_STRING;
+        }
+        if (type == byte[].class) {
+            return BODY_BYTES;
+        }
+        if (type == ByteBuffer.class) {
+            return BODY_BUFFER;
+        }
+        return NONE;
+    }
+
+    /**
+     * 按方法名和参数签名解析参数位置。
+     *
+     * @param method
+     * @return
+     */
+    private SendMethodSpec compile(Method method) {
+        String methodName = method.getName();
+        Class<?>[] types = method.getParameterTypes();
+
+        // 方法：public List<CompletableFuture<SendResult>> sendBatch(List<Message> messages)
+        // 方法：public List<CompletableFuture<SendResult>> sendBatch(List<String> contents, String tag)
+        if ("sendBatch".equals(methodName) && types.length > 0 && List.class.isAssignableFrom(types[0])
+                && !BaseTransactionProducer.class.isAssignableFrom(method.getDeclaringClass())) {
+            return new SendMethodSpec(methodName, 0, BODY_STRING, types.length == 2 ? 1 : NONE, NONE, NONE, NONE, false);
+        }
+
+        // 方法：public void sendObject(Object payload, MessageSerializer serializer, String tag, int delayTime)
+        // 方法：public void sendObject(Object payload, MessageSerializer serializer, String tag, String keyId, int delayTime)
+        if ("sendObject".equals(methodName) && types.length >= 4 && MessageSerializer.class.isAssignableFrom(types[1])
+                && !BaseTransactionProducer.class.isAssignableFrom(method.getDeclaringClass())) {
+            if (types.length == 4) {
+                return new SendMethodSpec(methodName, 0, BODY_OBJECT, 2, NONE, 3, NONE, 1, NONE, false);
+            }
+            if (types.length == 5) {
+                return new SendMethodSpec(methodName, 0, BODY_OBJECT, 2, 3, 4, NONE, 1, NONE, false);
+            }
+            return null;
+        }
+
+        int bodyType = bodyType(types.length > 0 ? types[0] : null);
+        if (types.length < 3 || bodyType == NONE) {
+            return null;
+        }
+        boolean future = CompletableFuture.class.isAssignableFrom(method.getReturnType());
+
+        if (BaseTransactionProducer.class.isAssignableFrom(method.getDeclaringClass())) {
+            // 本地事务执行器为最后一个参数，或其后还有传给执行器的参数
+            int executerIndex = LocalTransactionExecuter.class.isAssignableFrom(types[types.length - 1]) ? types.length - 1
+                    : LocalTransactionExecuter.class.isAssignableFrom(types[types.length - 2]) ? types.length - 2 : NONE;
+            if (!"sendMsg".equals(methodName) || executerIndex == NONE) {
+                return null;
+            }
+            // 方法：public void sendMsg(String content, String tag, LocalTransactionExecuter executer[, Object arg])
+            if (executerIndex == 2) {
+                return new SendMethodSpec(methodName, 0, bodyType, 1, NONE, NONE, 2, future);
+            }
+            // 方法：public void sendMsg(String content, String tag, String keyId, LocalTransactionExecuter executer[, Object arg])
+            if (executerIndex == 3) {
+                return new SendMethodSpec(methodName, 0, bodyType, 1, 2, NONE, 3, future);
+            }
+            return null;
+        }
+
+        if ("sendMsg".equals(methodName) || "sendMsgAsy".equals(methodName) || "sendMsgOneway".equals(methodName)
+                || "sendMsgFuture".equals(methodName)) {
+            // 方法：public void sendMsg(String content, String tag, int delayTime)
+            if (types.length == 3) {
+                return new SendMethodSpec(methodName, 0, bodyType, 1, NONE, 2, NONE, future);
+            }
+            // 方法：public void sendMsg(String content, String tag, String keyId, int delayTime)
+            if (types.length == 4) {
+                return new SendMethodSpec(methodName, 0, bodyType, 1, 2, 3, NONE, future);
+            }
+            return null;
+        }
+
+        if ("sendOrdered".equals(methodName) && types[types.length - 1] == String.class) {
+            // 方法：public void sendOrdered(String content, String tag, String shardingKey)
+            if (types.length == 3) {
+                return new SendMethodSpec(methodName, 0, bodyType, 1, NONE, NONE, NONE, NONE, 2, false);
+            }
+            // 方法：public void sendOrdered(String content, String tag, String keyId, String shardingKey)
+            if (types.length == 4) {
+                return new SendMethodSpec(methodName, 0, bodyType, 1, 2, NONE, NONE, NONE, 3, false);
+            }
+            return null;
+        }
+
+        if ("sendSecondMsg".equals(methodName)) {
+            // 方法：public void sendSecondMsg(String content, String keyId, int second)
+            if (types.length == 3) {
+                return new SendMethodSpec(methodName, 0, bodyType, NONE, 1, 2, NONE, future);
+            }
+            // 方法：public void sendSecondMsg(String content, String type, String keyId, int delayTime)
+            if (types.length == 4) {
+                return new SendMethodSpec(methodName, 0, bodyType, 1, 2, 3, NONE, future);
+            }
+            return null;
+        }
+
+        // 方法：public void sendMsgMillionSecond(String content, String keyId, long delayTime)
+        // 方法：public void sendParseMsg(String content,String keyId,int second)
+        // 方法：public void sendGrabMsg(String content,String keyId,int second)
+        if ("sendMsgMillionSecond".equals(methodName)
+                || "sendGrabMsg".equals(methodName)
+                || "sendParseMsg".equals(methodName)) {
+            return new SendMethodSpec(methodName, 0, bodyType, NONE, 1, 2, NONE, future);
+        }
+
+        return null;
+    }
+}
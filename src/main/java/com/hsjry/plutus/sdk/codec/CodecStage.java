@@ -0,0 +1,98 @@
+package com.hsjry.plutus.sdk.codec;
+
+import com.hsjry.plutus.sdk.component.EnvComponent;
+import com.hsjry.plutus.sdk.component.MqMetrics;
+import org.apache.rocketmq.common.message.MessageAccessor;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 消息体压缩阶段（开发和测试环境的线下消息）。
+ * 发送前按主题配置压缩，压缩算法写入用户属性PLUTUS_CODEC；消费时按该属性透明解压，业务监听收到的始终是原始消息体。
+ *
+ * @author qyf
+ * @Date 2019/8/16
+ */
+@Component
+public class CodecStage {
+
+    /**
+     * 记录压缩算法的用户属性
+     */
+    public static final String PROPERTY_CODEC = "PLUTUS_CODEC";
+
+    @Autowired
+    private EnvComponent envComponent;
+
+    @Autowired
+    private MqMetrics mqMetrics;
+
+    /**
+     * 算法名 -> 压缩算法
+     */
+    private final Map<String, MessageCodec> codecMap = new HashMap<>();
+
+    @Autowired
+    public void setCodecs(List<MessageCodec> codecs) {
+        codecs.forEach(codec -> codecMap.put(codec.name(), codec));
+    }
+
+    /**
+     * 解析主题的压缩配置并登记指标。
+     *
+     * @param topic       阿里云的主题，用于读取配置
+     * @param rocketTopic 线下rocketMq的主题，用于指标名
+     * @return
+     */
+    public TopicCodec resolve(String topic, String rocketTopic) {
+        String name = envComponent.getProperty("mq.codec.topic." + topic, envComponent.getCodecDefault());
+        if (!StringUtils.hasText(name) || "none".equals(name)) {
+            return new TopicCodec(null, Integer.MAX_VALUE, null, null, null);
+        }
+        MessageCodec codec = codecMap.get(name);
+        if (codec == null) {
+            throw new RuntimeException("不支持的消息压缩算法：" + name + "，主题：" + topic);
+        }
+        int threshold = Integer.parseInt(envComponent.getProperty("mq.codec.topic." + topic + ".threshold",
+                String.valueOf(envComponent.getCodecThreshold())));
+
+        String prefix = "codec." + rocketTopic + ".";
+        LongAdder rawBytes = mqMetrics.counter(prefix + "rawBytes");
+        LongAdder compressedBytes = mqMetrics.counter(prefix + "compressedBytes");
+        // 压缩率（千分比），压缩后字节数/原始字节数
+        mqMetrics.gauge(prefix + "ratioPermille", () -> {
+            long raw = rawBytes.sum();
+            return raw == 0 ? 0L : compressedBytes.sum() * 1000 / raw;
+        });
+        return new TopicCodec(codec, threshold, rawBytes, compressedBytes, mqMetrics.counter(prefix + "compressNanos"));
+    }
+
+    /**
+     * 按用户属性解压消息体，未压缩的消息不做处理。
+     * 解压后移除压缩属性：同一MessageExt可能被再次消费（顺序消费暂停、发回重试失败时本地重试）或按原属性发回重试，
+     * 不能再次解压。
+     *
+     * @param msg
+     */
+    public void decode(MessageExt msg) {
+        String name = msg.getUserProperty(PROPERTY_CODEC);
+        if (name == null) {
+            return;
+        }
+        MessageCodec codec = codecMap.get(name);
+        if (codec == null) {
+            throw new RuntimeException("不支持的消息压缩算法：" + name + "，msgId：" + msg.getMsgId());
+        }
+        long start = System.nanoTime();
+        msg.setBody(codec.decompress(msg.getBody()));
+        MessageAccessor.clearProperty(msg, PROPERTY_CODEC);
+        mqMetrics.counter("codec." + msg.getTopic() + ".decompressNanos").add(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,39 @@
+package com.hsjry.plutus.sdk.codec;
+
+import net.jpountz.lz4.LZ4CompressorWithLength;
+import net.jpountz.lz4.LZ4DecompressorWithLength;
+import net.jpountz.lz4.LZ4Factory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.stereotype.Component;
+
+/**
+ * LZ4压缩，需要业务系统引入lz4-java。
+ *
+ * @author qyf
+ * @Date 2019/8/16
+ */
+@Component
+@ConditionalOnClass(name = "net.jpountz.lz4.LZ4Factory")
+public class Lz4Codec implements MessageCodec {
+
+    private final LZ4CompressorWithLength compressor =
+            new LZ4CompressorWithLength(LZ4Factory.fastestInstance().fastCompressor());
+
+    private final LZ4DecompressorWithLength decompressor =
+            new LZ4DecompressorWithLength(LZ4Factory.fastestInstance().fastDecompressor());
+
+    @Override
+    public String name() {
+        return "lz4";
+    }
+
+    @Override
+    public byte[] compress(byte[] body) {
+        return compressor.compress(body);
+    }
+
+    @Override
+    public byte[] decompress(byte[] body) {
+        return decompressor.decompress(body);
+    }
+}
@@ -0,0 +1,34 @@
+package com.hsjry.plutus.sdk.codec;
+
+/**
+ * 消息体压缩算法。
+ * 实现类注册为spring bean即可使用，名称写入消息的用户属性，消费端据此选择解压算法。
+ *
+ * @author qyf
+ * @Date 2019/8/16
+ */
+public interface MessageCodec {
+
+    /**
+     * 算法名称，如：lz4、zstd、deflate
+     *
+     * @return
+     */
+    String name();
+
+    /**
+     * 压缩
+     *
+     * @param body
+     * @return
+     */
+    byte[] compress(byte[] body);
+
+    /**
+     * 解压
+     *
+     * @param body
+     * @return
+     */
+    byte[] decompress(byte[] body);
+}
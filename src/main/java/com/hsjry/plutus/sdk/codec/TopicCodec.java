@@ -0,0 +1,70 @@
+package com.hsjry.plutus.sdk.codec;
+
+import org.apache.rocketmq.common.message.Message;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个主题的压缩配置，创建生产者时解析一次，发送时直接使用。
+ *
+ * @author qyf
+ * @Date 2019/8/16
+ */
+public class TopicCodec {
+
+    /** 压缩算法，为空表示该主题不压缩 */
+    private final MessageCodec codec;
+
+    /** 消息体超过该字节数才压缩 */
+    private final int threshold;
+
+    /** 参与压缩的原始字节数 */
+    private final LongAdder rawBytes;
+
+    /** 压缩后的字节数 */
+    private final LongAdder compressedBytes;
+
+    /** 压缩耗时（纳秒） */
+    private final LongAdder compressNanos;
+
+    TopicCodec(MessageCodec codec, int threshold, LongAdder rawBytes, LongAdder compressedBytes,
+               LongAdder compressNanos) {
+        this.codec = codec;
+        this.threshold = threshold;
+        this.rawBytes = rawBytes;
+        this.compressedBytes = compressedBytes;
+        this.compressNanos = compressNanos;
+    }
+
+    /**
+     * 是否启用压缩。
+     *
+     * @return
+     */
+    public boolean isEnabled() {
+        return codec != null;
+    }
+
+    /**
+     * 消息体超过阈值时压缩，压缩后变小才替换消息体并在用户属性中记录算法名。
+     *
+     * @param rocketMsg
+     */
+    public void encode(Message rocketMsg) {
+        byte[] body = rocketMsg.getBody();
+        if (codec == null || body == null || body.length < threshold) {
+            return;
+        }
+        long start = System.nanoTime();
+        byte[] compressed = codec.compress(body);
+        compressNanos.add(System.nanoTime() - start);
+        rawBytes.add(body.length);
+        if (compressed.length >= body.length) {
+            compressedBytes.add(body.length);
+            return;
+        }
+        compressedBytes.add(compressed.length);
+        rocketMsg.setBody(compressed);
+        rocketMsg.putUserProperty(CodecStage.PROPERTY_CODEC, codec.name());
+    }
+}
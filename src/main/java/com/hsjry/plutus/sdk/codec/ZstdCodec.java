@@ -0,0 +1,38 @@
+package com.hsjry.plutus.sdk.codec;
+
+import com.github.luben.zstd.Zstd;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.stereotype.Component;
+
+/**
+ * Zstd压缩，需要业务系统引入zstd-jni。
+ *
+ * @author qyf
+ * @Date 2019/8/16
+ */
+@Component
+@ConditionalOnClass(name = "com.github.luben.zstd.Zstd")
+public class ZstdCodec implements MessageCodec {
+
+    /**
+     * 压缩级别
+     */
+    @Value("${mq.codec.zstd.level:3}")
+    private int level;
+
+    @Override
+    public String name() {
+        return "zstd";
+    }
+
+    @Override
+    public byte[] compress(byte[] body) {
+        return Zstd.compress(body, level);
+    }
+
+    @Override
+    public byte[] decompress(byte[] body) {
+        return Zstd.decompress(body, (int) Zstd.decompressedSize(body));
+    }
+}
@@ -37,9 +37,314 @@ public class EnvComponent {
     @Value("${local.consume.only:1}")
     private String localConsumeOnly;
 
+    /**
+     * 异步发送的在途消息上限，达到上限后发送方阻塞等待（背压）
+     */
+    @Value("${mq.async.maxInflight:2048}")
+    private int asyncMaxInflight;
+
+    /**
+     * 异步发送等待在途名额的超时时间（毫秒）
+     */
+    @Value("${mq.async.acquireTimeoutMs:3000}")
+    private long asyncAcquireTimeoutMs;
+
+    /**
+     * 异步发送回调线程数
+     */
+    @Value("${mq.async.callbackThreads:4}")
+    private int asyncCallbackThreads;
+
+    /**
+     * 异步发送回调队列在在途上限（mq.async.maxInflight）之外预留的长度
+     */
+    @Value("${mq.async.callbackQueueSize:10000}")
+    private int asyncCallbackQueueSize;
+
+    /**
+     * 是否开启自动攒批发送（线下环境），同一主题的消息在时间窗口内合并为一次批量发送
+     */
+    @Value("${mq.batch.auto.enabled:false}")
+    private boolean autoBatchEnabled;
+
+    /**
+     * 自动攒批的时间窗口（毫秒）
+     */
+    @Value("${mq.batch.auto.windowMs:5}")
+    private long autoBatchWindowMs;
+
+    /**
+     * 自动攒批每批最多消息条数
+     */
+    @Value("${mq.batch.auto.maxMessages:128}")
+    private int autoBatchMaxMessages;
+
+    /**
+     * 并行启动消息客户端的线程数
+     */
+    @Value("${mq.startup.threads:8}")
+    private int startupThreads;
+
+    /**
+     * 消息客户端启动超时时间（毫秒）
+     */
+    @Value("${mq.startup.timeoutMs:60000}")
+    private long startupTimeoutMs;
+
+    /**
+     * 是否延迟启动消息生产者（首次发送时才启动）
+     */
+    @Value("${mq.producer.lazyStart:false}")
+    private boolean producerLazyStart;
+
+    /**
+     * 线下消息客户端共享方式：shared（全部共用一个客户端实例）、per-group（每个分组一个）、per-bean（每个bean一个）
+     */
+    @Value("${mq.client.sharing:shared}")
+    private String clientSharing;
+
+    /**
+     * 共用客户端实例时的实例名
+     */
+    @Value("${mq.client.instanceName:plutus_mq}")
+    private String clientInstanceName;
+
+    /**
+     * 客户端单元名，为空则不设置
+     */
+    @Value("${mq.client.unitName:}")
+    private String clientUnitName;
+
+    /**
+     * 消息体默认压缩算法（lz4、zstd、deflate），为空则不压缩；单个主题可用mq.codec.topic.<主题>覆盖
+     */
+    @Value("${mq.codec.default:}")
+    private String codecDefault;
+
+    /**
+     * 消息体超过该字节数才压缩；单个主题可用mq.codec.topic.<主题>.threshold覆盖
+     */
+    @Value("${mq.codec.threshold:4096}")
+    private int codecThreshold;
+
+    /**
+     * 线下broker的延时级别（须与broker的messageDelayLevel一致）
+     */
+    @Value("${mq.delay.levels:1s 5s 10s 30s 1m 2m 3m 4m 5m 6m 7m 8m 9m 10m 20m 30m 1h 2h}")
+    private String delayLevels;
+
+    /**
+     * 延时方式：nearest（取最接近的延时级别）、exact（本地持有到剩余延时正好对应延时级别时再发送）
+     */
+    @Value("${mq.delay.mode:nearest}")
+    private String delayMode;
+
+    /**
+     * 延时消息时间轮的刻度（毫秒）
+     */
+    @Value("${mq.delay.wheel.tickMs:100}")
+    private long delayWheelTickMs;
+
+    /**
+     * 延时消息时间轮的槽数
+     */
+    @Value("${mq.delay.wheel.size:512}")
+    private int delayWheelSize;
+
+    /**
+     * 本地持有的延时消息超过该条数后，消息体只保留在日志中（需开启日志）
+     */
+    @Value("${mq.delay.wheel.maxInMemory:100000}")
+    private int delayWheelMaxInMemory;
+
+    /**
+     * 延时消息日志目录，为空则不记录日志（重启后本地持有的延时消息丢失）
+     */
+    @Value("${mq.delay.journal.dir:}")
+    private String delayJournalDir;
+
+    /**
+     * 延时消息日志单段最大字节数
+     */
+    @Value("${mq.delay.journal.segmentBytes:67108864}")
+    private long delayJournalSegmentBytes;
+
+    /**
+     * 延时消息日志每条记录写入后是否刷盘
+     */
+    @Value("${mq.delay.journal.sync:false}")
+    private boolean delayJournalSync;
+
+    /**
+     * 到期延时消息的发送线程数
+     */
+    @Value("${mq.delay.send.threads:2}")
+    private int delaySendThreads;
+
+    /**
+     * 到期延时消息发送线程池的队列长度，队列满时到期消息放回时间轮下一刻度再发
+     */
+    @Value("${mq.delay.send.queueSize:1024}")
+    private int delaySendQueueSize;
+
+    /**
+     * 延时消息发送失败后的最多发送次数，超过后不再重发（开启日志时重启后恢复）
+     */
+    @Value("${mq.delay.retry.maxAttempts:16}")
+    private int delayRetryMaxAttempts;
+
+    /**
+     * 延时消息发送失败后重发的初始退避毫秒数，每次翻倍
+     */
+    @Value("${mq.delay.retry.backoffMs:1000}")
+    private long delayRetryBackoffMs;
+
+    /**
+     * 延时消息重发的最大退避毫秒数
+     */
+    @Value("${mq.delay.retry.maxBackoffMs:60000}")
+    private long delayRetryMaxBackoffMs;
+
+    /**
+     * 本地出站箱目录，为空则不开启（发送直接到broker）
+     */
+    @Value("${mq.outbox.dir:}")
+    private String outboxDir;
+
+    /**
+     * 出站日志单段字节数
+     */
+    @Value("${mq.outbox.segmentBytes:67108864}")
+    private int outboxSegmentBytes;
+
+    /**
+     * 出站消息每批转发的最大条数
+     */
+    @Value("${mq.outbox.relayBatchSize:128}")
+    private int outboxRelayBatchSize;
+
+    /**
+     * 出站消息转发失败时的最大退避毫秒数
+     */
+    @Value("${mq.outbox.maxBackoffMs:30000}")
+    private long outboxMaxBackoffMs;
+
+    /**
+     * 本地出站箱最多积压的字节数，超过后发送直接失败，0为不限制
+     */
+    @Value("${mq.outbox.maxBacklogBytes:1073741824}")
+    private long outboxMaxBacklogBytes;
+
+    /**
+     * 是否开启broker故障规避（按发送耗时和失败暂时避开broker）
+     */
+    @Value("${mq.send.latencyFaultEnable:true}")
+    private boolean sendLatencyFaultEnable;
+
+    /**
+     * 是否开启消费者自适应流控
+     */
+    @Value("${mq.consumer.flow.enabled:true}")
+    private boolean consumerFlowEnabled;
+
+    /**
+     * 进程内缓存的待消费消息上限（MB）
+     */
+    @Value("${mq.consumer.flow.maxCachedMb:512}")
+    private long consumerFlowMaxCachedMb;
+
+    /**
+     * 流控调整间隔毫秒数
+     */
+    @Value("${mq.consumer.flow.intervalMs:1000}")
+    private long consumerFlowIntervalMs;
+
+    /**
+     * 单条消费耗时p99超过该毫秒数时降低拉取
+     */
+    @Value("${mq.consumer.flow.slowMs:1000}")
+    private long consumerFlowSlowMs;
+
+    /**
+     * 消费变慢时单队列缓存的消息按该秒数内可消费完计算
+     */
+    @Value("${mq.consumer.flow.backlogSeconds:10}")
+    private long consumerFlowBacklogSeconds;
+
+    /**
+     * 消费变慢时的最大拉取间隔毫秒数
+     */
+    @Value("${mq.consumer.flow.maxPullIntervalMs:1000}")
+    private long consumerFlowMaxPullIntervalMs;
+
+    /**
+     * 消费去重记录的条数上限
+     */
+    @Value("${mq.dedup.maxEntries:100000}")
+    private int dedupMaxEntries;
+
+    /**
+     * 消费去重记录的有效秒数
+     */
+    @Value("${mq.dedup.ttlSeconds:86400}")
+    private long dedupTtlSeconds;
+
+    /**
+     * 消费去重存储的分片数
+     */
+    @Value("${mq.dedup.shards:16}")
+    private int dedupShards;
+
+    /**
+     * 消费去重日志目录，为空时只在内存中去重
+     */
+    @Value("${mq.dedup.dir:}")
+    private String dedupDir;
+
+    /**
+     * 本地死信目录，为空时由broker转入死信队列
+     */
+    @Value("${mq.dlq.dir:}")
+    private String dlqDir;
+
+    /**
+     * 本地事务状态索引的条数上限
+     */
+    @Value("${mq.transaction.index.maxEntries:100000}")
+    private int transactionIndexMaxEntries;
+
+    /**
+     * 本地事务状态日志目录，为空时只记录在内存中
+     */
+    @Value("${mq.transaction.index.dir:}")
+    private String transactionIndexDir;
+
+    /**
+     * 事务回查线程池的最小线程数
+     */
+    @Value("${mq.transaction.check.threadMin:1}")
+    private int transactionCheckThreadMin;
+
+    /**
+     * 事务回查线程池的最大线程数
+     */
+    @Value("${mq.transaction.check.threadMax:1}")
+    private int transactionCheckThreadMax;
+
+    /**
+     * 等待处理的事务回查请求上限
+     */
+    @Value("${mq.transaction.check.requestHoldMax:2000}")
+    private int transactionCheckRequestHoldMax;
+
     @Autowired
     private Environment env;
 
+    /**
+     * 本机名缓存，避免每次计算分组都做一次InetAddress.getLocalHost()
+     */
+    private volatile String hostName;
+
     @PostConstruct
     void init() {
         String[] profiles = env.getActiveProfiles();
@@ -80,9 +385,13 @@ public class EnvComponent {
      * @return
      */
     public String getHostName() {
+        if (hostName != null) {
+            return hostName;
+        }
         try {
             InetAddress addr = InetAddress.getLocalHost();
-            return addr.getHostName();
+            hostName = addr.getHostName();
+            return hostName;
         } catch (Exception e) {
             e.printStackTrace();
             return "";
@@ -124,4 +433,215 @@ public class EnvComponent {
 
         return group;
     }
+
+    public int getAsyncMaxInflight() {
+        return asyncMaxInflight;
+    }
+
+    public long getAsyncAcquireTimeoutMs() {
+        return asyncAcquireTimeoutMs;
+    }
+
+    public int getAsyncCallbackThreads() {
+        return asyncCallbackThreads;
+    }
+
+    public int getAsyncCallbackQueueSize() {
+        return asyncCallbackQueueSize;
+    }
+
+    public boolean isAutoBatchEnabled() {
+        return autoBatchEnabled;
+    }
+
+    public long getAutoBatchWindowMs() {
+        return autoBatchWindowMs;
+    }
+
+    public int getAutoBatchMaxMessages() {
+        return autoBatchMaxMessages;
+    }
+
+    public int getStartupThreads() {
+        return startupThreads;
+    }
+
+    public long getStartupTimeoutMs() {
+        return startupTimeoutMs;
+    }
+
+    public boolean isProducerLazyStart() {
+        return producerLazyStart;
+    }
+
+    public String getClientSharing() {
+        return clientSharing;
+    }
+
+    public String getClientInstanceName() {
+        return clientInstanceName;
+    }
+
+    public String getClientUnitName() {
+        return clientUnitName;
+    }
+
+    public String getCodecDefault() {
+        return codecDefault;
+    }
+
+    public int getCodecThreshold() {
+        return codecThreshold;
+    }
+
+    /**
+     * 取得配置项，用于按主题等动态拼接的配置名。
+     *
+     * @param key
+     * @param defaultValue
+     * @return
+     */
+    public String getProperty(String key, String defaultValue) {
+        return env.getProperty(key, defaultValue);
+    }
+
+    public String getDelayLevels() {
+        return delayLevels;
+    }
+
+    public String getDelayMode() {
+        return delayMode;
+    }
+
+    public long getDelayWheelTickMs() {
+        return delayWheelTickMs;
+    }
+
+    public int getDelayWheelSize() {
+        return delayWheelSize;
+    }
+
+    public int getDelayWheelMaxInMemory() {
+        return delayWheelMaxInMemory;
+    }
+
+    public String getDelayJournalDir() {
+        return delayJournalDir;
+    }
+
+    public long getDelayJournalSegmentBytes() {
+        return delayJournalSegmentBytes;
+    }
+
+    public boolean isDelayJournalSync() {
+        return delayJournalSync;
+    }
+
+    public int getDelaySendThreads() {
+        return delaySendThreads;
+    }
+
+    public int getDelaySendQueueSize() {
+        return delaySendQueueSize;
+    }
+
+    public int getDelayRetryMaxAttempts() {
+        return delayRetryMaxAttempts;
+    }
+
+    public long getDelayRetryBackoffMs() {
+        return delayRetryBackoffMs;
+    }
+
+    public long getDelayRetryMaxBackoffMs() {
+        return delayRetryMaxBackoffMs;
+    }
+
+    public String getOutboxDir() {
+        return outboxDir;
+    }
+
+    public int getOutboxSegmentBytes() {
+        return outboxSegmentBytes;
+    }
+
+    public int getOutboxRelayBatchSize() {
+        return outboxRelayBatchSize;
+    }
+
+    public long getOutboxMaxBackoffMs() {
+        return outboxMaxBackoffMs;
+    }
+
+    public long getOutboxMaxBacklogBytes() {
+        return outboxMaxBacklogBytes;
+    }
+
+    public boolean isSendLatencyFaultEnable() {
+        return sendLatencyFaultEnable;
+    }
+
+    public boolean isConsumerFlowEnabled() {
+        return consumerFlowEnabled;
+    }
+
+    public long getConsumerFlowMaxCachedMb() {
+        return consumerFlowMaxCachedMb;
+    }
+
+    public long getConsumerFlowIntervalMs() {
+        return consumerFlowIntervalMs;
+    }
+
+    public long getConsumerFlowSlowMs() {
+        return consumerFlowSlowMs;
+    }
+
+    public long getConsumerFlowBacklogSeconds() {
+        return consumerFlowBacklogSeconds;
+    }
+
+    public long getConsumerFlowMaxPullIntervalMs() {
+        return consumerFlowMaxPullIntervalMs;
+    }
+
+    public int getDedupMaxEntries() {
+        return dedupMaxEntries;
+    }
+
+    public long getDedupTtlSeconds() {
+        return dedupTtlSeconds;
+    }
+
+    public int getDedupShards() {
+        return dedupShards;
+    }
+
+    public String getDedupDir() {
+        return dedupDir;
+    }
+
+    public String getDlqDir() {
+        return dlqDir;
+    }
+
+    public int getTransactionIndexMaxEntries() {
+        return transactionIndexMaxEntries;
+    }
+
+    public String getTransactionIndexDir() {
+        return transactionIndexDir;
+    }
+
+    public int getTransactionCheckThreadMin() {
+        return transactionCheckThreadMin;
+    }
+
+    public int getTransactionCheckThreadMax() {
+        return transactionCheckThreadMax;
+    }
+
+    public int getTransactionCheckRequestHoldMax() {
+        return transactionCheckRequestHoldMax;
+    }
 }
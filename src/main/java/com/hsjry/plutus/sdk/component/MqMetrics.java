@@ -0,0 +1,63 @@
+package com.hsjry.plutus.sdk.component;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 消息指标组件。
+ * 计数器在创建生产者/消费者时按名称取得并由调用方持有，热点路径上只做LongAdder累加；
+ * 瞬时值（如在途数、队列长度）以gauge形式登记，取快照时才计算。
+ *
+ * @author qyf
+ * @Date 2019/8/12
+ */
+@Component
+public class MqMetrics {
+
+    /**
+     * 指标名 -> 计数器
+     */
+    private final Map<String, LongAdder> counterMap = new ConcurrentHashMap<>();
+
+    /**
+     * 指标名 -> 瞬时值
+     */
+    private final Map<String, Supplier<Long>> gaugeMap = new ConcurrentHashMap<>();
+
+    /**
+     * 取得计数器，不存在则创建。
+     *
+     * @param name 指标名，如：consumer.dev_SDHS_MSG_NOTICE_TOPIC.delivered
+     * @return
+     */
+    public LongAdder counter(String name) {
+        return counterMap.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * 登记瞬时值。
+     *
+     * @param name
+     * @param gauge
+     */
+    public void gauge(String name, Supplier<Long> gauge) {
+        gaugeMap.put(name, gauge);
+    }
+
+    /**
+     * 取得所有指标的当前值，按指标名排序。
+     *
+     * @return
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        counterMap.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+        gaugeMap.forEach((name, gauge) -> snapshot.put(name, gauge.get()));
+        return snapshot;
+    }
+}
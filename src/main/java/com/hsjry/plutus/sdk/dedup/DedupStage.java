@@ -0,0 +1,93 @@
+package com.hsjry.plutus.sdk.dedup;
+
+import com.hsjry.plutus.sdk.component.EnvComponent;
+import com.hsjry.plutus.sdk.component.MqMetrics;
+import com.hsjry.plutus.sdk.mq.SubscriptionEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消费去重阶段（开发和测试环境的线下消息，按订阅开启）。
+ * ConsumerBean属性Idempotent=true开启（可按订阅配置：主题.Idempotent），IdempotentKey选择去重键：key（默认）或msgId。
+ * 重复投递的消息直接确认，不调用消费监听。
+ *
+ * @author qyf
+ * @Date 2019/8/29
+ */
+@Component
+public class DedupStage {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /** ConsumerBean属性：是否开启消费去重 */
+    public static final String IDEMPOTENT = "Idempotent";
+
+    /** ConsumerBean属性：去重键（key或msgId） */
+    public static final String IDEMPOTENT_KEY = "IdempotentKey";
+
+    @Autowired
+    private EnvComponent envComponent;
+
+    @Autowired
+    private MqMetrics mqMetrics;
+
+    /** 应用自定义的去重存储 */
+    @Autowired(required = false)
+    private DedupStore customStore;
+
+    /** 所有订阅共用的去重存储，首个开启去重的订阅创建 */
+    private DedupStore store;
+
+    /**
+     * 解析订阅的去重配置并登记指标。
+     *
+     * @param entity
+     * @return
+     */
+    public IdempotentFilter resolve(SubscriptionEntity entity) {
+        if (!Boolean.parseBoolean(getProperty(entity, IDEMPOTENT))) {
+            return IdempotentFilter.NONE;
+        }
+        String keyType = getProperty(entity, IDEMPOTENT_KEY);
+        if (keyType == null) {
+            keyType = IdempotentFilter.KEY_TYPE_KEY;
+        } else if (!IdempotentFilter.KEY_TYPE_KEY.equals(keyType) && !IdempotentFilter.KEY_TYPE_MSG_ID.equals(keyType)) {
+            throw new RuntimeException("不支持的去重键：" + keyType + "，主题：" + entity.getSubscription().getTopic());
+        }
+        logger.info("开启消费去重：分组：{}，主题：{}，去重键：{}", entity.getGroup(), entity.getTopic(), keyType);
+        return new IdempotentFilter(this.getStore(), entity.getGroup() + "/" + entity.getTopic() + "/", keyType,
+                mqMetrics.counter("dedup." + entity.getTopic() + ".duplicates"));
+    }
+
+    private synchronized DedupStore getStore() {
+        if (store == null) {
+            long ttlMillis = TimeUnit.SECONDS.toMillis(envComponent.getDedupTtlSeconds());
+            if (customStore != null) {
+                store = customStore;
+            } else if (StringUtils.hasText(envComponent.getDedupDir())) {
+                store = new JournalDedupStore(new File(envComponent.getDedupDir()), envComponent.getDedupMaxEntries(),
+                        ttlMillis, envComponent.getDedupShards());
+            } else {
+                store = new LruDedupStore(envComponent.getDedupMaxEntries(), ttlMillis, envComponent.getDedupShards());
+            }
+            logger.info("消费去重存储：{}", store.getClass().getSimpleName());
+        }
+        return store;
+    }
+
+    /**
+     * 订阅级（主题.属性名）优先于ConsumerBean级。
+     */
+    private static String getProperty(SubscriptionEntity entity, String key) {
+        String value = entity.getProperties().getProperty(entity.getSubscription().getTopic() + "." + key);
+        if (value == null) {
+            value = entity.getProperties().getProperty(key);
+        }
+        return value == null ? null : value.trim();
+    }
+}
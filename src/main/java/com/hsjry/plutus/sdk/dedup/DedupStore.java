@@ -0,0 +1,26 @@
+package com.hsjry.plutus.sdk.dedup;
+
+/**
+ * 消费去重的存储。
+ * 默认为内存中的分片LRU（配置mq.dedup.dir时同时写入本地日志），应用也可以定义该接口的bean（如基于redis或数据库）替换。
+ *
+ * @author qyf
+ * @Date 2019/8/29
+ */
+public interface DedupStore {
+
+    /**
+     * 是否已消费过（未过期）。
+     *
+     * @param key
+     * @return
+     */
+    boolean contains(String key);
+
+    /**
+     * 记录已消费。
+     *
+     * @param key
+     */
+    void put(String key);
+}
@@ -0,0 +1,76 @@
+package com.hsjry.plutus.sdk.dedup;
+
+import org.apache.rocketmq.common.message.MessageExt;
+import org.springframework.util.StringUtils;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个订阅的消费去重：消费成功后记录去重键，重复投递的消息不再交给消费监听。
+ * 去重键为"分组/主题/消息key"（未设置key时用msgId），或配置为只用msgId。
+ *
+ * @author qyf
+ * @Date 2019/8/29
+ */
+public class IdempotentFilter {
+
+    /** 去重键：消息key，未设置时为msgId */
+    public static final String KEY_TYPE_KEY = "key";
+
+    /** 去重键：msgId（对冲发送的两份消息msgId相同） */
+    public static final String KEY_TYPE_MSG_ID = "msgId";
+
+    /** 不去重 */
+    static final IdempotentFilter NONE = new IdempotentFilter(null, null, null, null);
+
+    private final DedupStore store;
+
+    /** 键前缀：分组/主题/ */
+    private final String prefix;
+
+    private final String keyType;
+
+    /** 重复投递的条数 */
+    private final LongAdder duplicates;
+
+    IdempotentFilter(DedupStore store, String prefix, String keyType, LongAdder duplicates) {
+        this.store = store;
+        this.prefix = prefix;
+        this.keyType = keyType;
+        this.duplicates = duplicates;
+    }
+
+    public boolean isEnabled() {
+        return store != null;
+    }
+
+    /**
+     * 是否重复投递（已消费成功过）。
+     *
+     * @param msg
+     * @return
+     */
+    public boolean isDuplicate(MessageExt msg) {
+        if (store == null || !store.contains(this.key(msg))) {
+            return false;
+        }
+        duplicates.increment();
+        return true;
+    }
+
+    /**
+     * 记录消费成功。
+     *
+     * @param msg
+     */
+    public void markConsumed(MessageExt msg) {
+        if (store != null) {
+            store.put(this.key(msg));
+        }
+    }
+
+    private String key(MessageExt msg) {
+        String id = KEY_TYPE_KEY.equals(keyType) && StringUtils.hasText(msg.getKeys()) ? msg.getKeys() : msg.getMsgId();
+        return prefix + id;
+    }
+}
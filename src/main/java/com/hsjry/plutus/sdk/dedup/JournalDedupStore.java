@@ -0,0 +1,126 @@
+package com.hsjry.plutus.sdk.dedup;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 写本地日志的消费去重存储，重启后从日志恢复未过期的记录。
+ * 日志每行为"记录时间\t键"，行数超过条数上限的两倍时按内存中的记录重写。
+ *
+ * @author qyf
+ * @Date 2019/8/29
+ */
+public class JournalDedupStore implements DedupStore {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private static final String FILE_NAME = "dedup.log";
+
+    private final LruDedupStore memory;
+
+    private final File file;
+
+    /** 日志行数超过该值时重写 */
+    private final int compactLines;
+
+    private Writer writer;
+
+    /** 日志当前行数 */
+    private int lines;
+
+    public JournalDedupStore(File dir, int maxEntries, long ttlMillis, int shardCount) {
+        this.memory = new LruDedupStore(maxEntries, ttlMillis, shardCount);
+        this.compactLines = Math.max(maxEntries, 1) * 2;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new RuntimeException("创建消费去重日志目录失败：" + dir);
+        }
+        this.file = new File(dir, FILE_NAME);
+        try {
+            this.replay();
+            this.compact();
+        } catch (IOException e) {
+            throw new RuntimeException("恢复消费去重日志失败：" + file, e);
+        }
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return memory.contains(key);
+    }
+
+    @Override
+    public synchronized void put(String key) {
+        long now = System.currentTimeMillis();
+        memory.put(key, now);
+        try {
+            writer.write(now + "\t" + key.replace('\n', ' ') + "\n");
+            writer.flush();
+            if (++lines > compactLines) {
+                this.compact();
+            }
+        } catch (IOException e) {
+            // 只影响重启后的去重，不影响消费
+            logger.error("写消费去重日志失败：{}，e:{}", file, e);
+        }
+    }
+
+    /**
+     * 从日志恢复，格式不正确的行（如写了一半）忽略。
+     */
+    private void replay() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab <= 0) {
+                    continue;
+                }
+                try {
+                    memory.put(line.substring(tab + 1), Long.parseLong(line.substring(0, tab)));
+                } catch (NumberFormatException e) {
+                    // 忽略
+                }
+            }
+        }
+    }
+
+    /**
+     * 按内存中未过期的记录重写日志。
+     */
+    private void compact() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        int[] count = new int[1];
+        try (BufferedWriter out = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+            IOException[] error = new IOException[1];
+            memory.forEach((key, timestamp) -> {
+                try {
+                    out.write(timestamp + "\t" + key + "\n");
+                    count[0]++;
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            });
+            if (error[0] != null) {
+                throw error[0];
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.lines = count[0];
+        this.writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+    }
+}
@@ -0,0 +1,111 @@
+package com.hsjry.plutus.sdk.dedup;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * 内存中的消费去重存储。
+ * 按键的哈希分片，每个分片是按记录时间排列的LinkedHashMap，超过条数上限时淘汰最早的记录，过期的记录从头部清理。
+ *
+ * @author qyf
+ * @Date 2019/8/29
+ */
+public class LruDedupStore implements DedupStore {
+
+    private final Shard[] shards;
+
+    /** 记录的有效毫秒数 */
+    private final long ttlMillis;
+
+    public LruDedupStore(int maxEntries, long ttlMillis, int shardCount) {
+        this.ttlMillis = ttlMillis;
+        this.shards = new Shard[Math.max(shardCount, 1)];
+        int maxPerShard = Math.max(maxEntries / shards.length, 1);
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(maxPerShard);
+        }
+    }
+
+    @Override
+    public boolean contains(String key) {
+        Shard shard = this.shard(key);
+        long now = System.currentTimeMillis();
+        synchronized (shard) {
+            shard.expire(now - ttlMillis);
+            return shard.containsKey(key);
+        }
+    }
+
+    @Override
+    public void put(String key) {
+        this.put(key, System.currentTimeMillis());
+    }
+
+    /**
+     * 按指定的记录时间记录（恢复时使用）。
+     *
+     * @param key
+     * @param timestamp
+     */
+    void put(String key, long timestamp) {
+        if (timestamp < System.currentTimeMillis() - ttlMillis) {
+            return;
+        }
+        Shard shard = this.shard(key);
+        synchronized (shard) {
+            // 先移除再放入，保持按记录时间排列
+            shard.remove(key);
+            shard.put(key, timestamp);
+        }
+    }
+
+    /**
+     * 遍历所有未过期的记录。
+     *
+     * @param action 键，记录时间
+     */
+    void forEach(BiConsumer<String, Long> action) {
+        long expireBefore = System.currentTimeMillis() - ttlMillis;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.expire(expireBefore);
+                shard.forEach(action);
+            }
+        }
+    }
+
+    private Shard shard(String key) {
+        return shards[(key.hashCode() & Integer.MAX_VALUE) % shards.length];
+    }
+
+    /**
+     * 一个分片，键 -> 记录时间。
+     */
+    private static class Shard extends LinkedHashMap<String, Long> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        private Shard(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > maxEntries;
+        }
+
+        /**
+         * 从头部清理早于指定时间的记录。
+         */
+        private void expire(long expireBefore) {
+            Iterator<Long> iterator = values().iterator();
+            while (iterator.hasNext() && iterator.next() < expireBefore) {
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -2,14 +2,24 @@ package com.hsjry.plutus.sdk.jms;
 
 import com.aliyun.openservices.ons.api.Message;
 import com.aliyun.openservices.ons.api.OnExceptionContext;
+import com.aliyun.openservices.ons.api.PropertyKeyConst;
 import com.aliyun.openservices.ons.api.SendCallback;
 import com.aliyun.openservices.ons.api.SendResult;
+import com.aliyun.openservices.ons.api.bean.OrderProducerBean;
 import com.aliyun.openservices.ons.api.bean.ProducerBean;
 import com.aliyun.openservices.ons.api.exception.ONSClientException;
+import com.hsjry.plutus.sdk.serializer.MessageSerializer;
+import com.hsjry.plutus.sdk.utils.MessageUtils;
 import com.hsjry.plutus.sdk.utils.UUIDUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * producer基础类
  * @Author qyf 
@@ -20,12 +30,27 @@ public class BaseProducer extends ProducerBean {
 
     private String topic;
 
+    /** 顺序消息生产者，首次顺序发送时创建 */
+    private volatile OrderProducerBean orderProducer;
+
     public BaseProducer(String risktopic) {
         this.topic = risktopic;
     }
 
     public void sendMsg(String content, String tag, String keyId, int delayTime) {
-        Message msg = new Message(topic, tag, content.getBytes());
+        this.sendMsg(MessageUtils.encode(content), tag, keyId, delayTime);
+    }
+
+    public void sendMsg(String content, String tag, int delayTime) {
+       this.sendMsg(content,tag, UUIDUtil.getUUID(), delayTime);
+    }
+
+    /**
+     * 发送已编码的消息内容，不再经过String转换
+     * @param body 消息内容，直接作为消息体，发送完成前不要修改
+     */
+    public void sendMsg(byte[] body, String tag, String keyId, int delayTime) {
+        Message msg = new Message(topic, tag, body);
         if (keyId != null) {
             msg.setKey(keyId);
         }
@@ -43,8 +68,29 @@ public class BaseProducer extends ProducerBean {
         }
     }
 
-    public void sendMsg(String content, String tag, int delayTime) {
-       this.sendMsg(content,tag, UUIDUtil.getUUID(), delayTime);
+    public void sendMsg(byte[] body, String tag, int delayTime) {
+        this.sendMsg(body, tag, UUIDUtil.getUUID(), delayTime);
+    }
+
+    /**
+     * 发送ByteBuffer中剩余的消息内容，缓冲区正好覆盖整个底层数组时不复制
+     * @param body 消息内容，不改变其position
+     */
+    public void sendMsg(ByteBuffer body, String tag, String keyId, int delayTime) {
+        this.sendMsg(MessageUtils.toBytes(body), tag, keyId, delayTime);
+    }
+
+    /**
+     * 发送对象消息，对象直接序列化为消息体
+     * @param payload 消息对象
+     * @param serializer 序列化方式，消费端用TypedMessageListener按同一方式反序列化
+     */
+    public void sendObject(Object payload, MessageSerializer serializer, String tag, String keyId, int delayTime) {
+        this.sendMsg(serializer.serialize(payload), tag, keyId, delayTime);
+    }
+
+    public void sendObject(Object payload, MessageSerializer serializer, String tag, int delayTime) {
+        this.sendObject(payload, serializer, tag, UUIDUtil.getUUID(), delayTime);
     }
 
     /**
@@ -57,7 +103,7 @@ public class BaseProducer extends ProducerBean {
      */
     public boolean sendMsgAsy(String content, String tag, int delayTime) {
         Long startTime = System.currentTimeMillis();
-        Message message = new Message(topic, tag, content.getBytes());
+        Message message = new Message(topic, tag, MessageUtils.encode(content));
         //定时
         if (delayTime != 0) {
             message.setStartDeliverTime(System.currentTimeMillis() + (60 * 1000 * delayTime));
@@ -80,6 +126,140 @@ public class BaseProducer extends ProducerBean {
         return true;
     }
 
+    /**
+     * 异步发送消息，返回发送结果的future
+     * 与sendMsgAsy相同走异步通道，调用方可通过future取得消息id或失败原因；
+     * 线下环境在途消息达到上限时会阻塞调用方，起到背压作用。
+     * @param content
+     * @return
+     */
+    public CompletableFuture<SendResult> sendMsgFuture(String content, String tag, String keyId, int delayTime) {
+        Message message = new Message(topic, tag, MessageUtils.encode(content));
+        if (keyId != null) {
+            message.setKey(keyId);
+        }
+        //定时
+        if (delayTime != 0) {
+            message.setStartDeliverTime(System.currentTimeMillis() + (60 * 1000 * delayTime));
+        }
+        return this.sendFuture(message);
+    }
+
+    public CompletableFuture<SendResult> sendMsgFuture(String content, String tag, int delayTime) {
+        return this.sendMsgFuture(content, tag, UUIDUtil.getUUID(), delayTime);
+    }
+
+    /**
+     * 批量发送消息
+     * 每条消息单独返回发送结果或异常（消息主题统一为当前生产者的主题）；
+     * 线上环境为逐条异步发送（流水线），线下环境按rocketMq批量消息发送，单批不超过4M。
+     * @param messages
+     * @return
+     */
+    public List<CompletableFuture<SendResult>> sendBatch(List<Message> messages) {
+        List<CompletableFuture<SendResult>> futures = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            futures.add(this.sendFuture(this.copyWithTopic(message)));
+        }
+        return futures;
+    }
+
+    /**
+     * 复制消息并改为当前生产者的主题，不修改调用方的消息。
+     */
+    private Message copyWithTopic(Message message) {
+        Message copy = new Message(topic, message.getTag(), message.getKey(), message.getBody());
+        Properties userProperties = new Properties();
+        userProperties.putAll(message.getUserProperties());
+        copy.setUserProperties(userProperties);
+        if (message.getShardingKey() != null) {
+            copy.setShardingKey(message.getShardingKey());
+        }
+        if (message.getStartDeliverTime() > 0) {
+            copy.setStartDeliverTime(message.getStartDeliverTime());
+        }
+        return copy;
+    }
+
+    public List<CompletableFuture<SendResult>> sendBatch(List<String> contents, String tag) {
+        List<Message> messages = new ArrayList<>(contents.size());
+        for (String content : contents) {
+            Message message = new Message(topic, tag, MessageUtils.encode(content));
+            message.setKey(UUIDUtil.getUUID());
+            messages.add(message);
+        }
+        return this.sendBatch(messages);
+    }
+
+    /**
+     * 异步发送一条消息，发送结果回填到future。
+     */
+    private CompletableFuture<SendResult> sendFuture(Message message) {
+        CompletableFuture<SendResult> future = new CompletableFuture<>();
+        this.sendAsync(message, new SendCallback() {
+            @Override
+            public void onSuccess(SendResult sendResult) {
+                future.complete(sendResult);
+            }
+
+            @Override
+            public void onException(OnExceptionContext context) {
+                future.completeExceptionally(context.getException());
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 顺序发送：按分区键选择队列，同一分区键的消息严格按发送顺序消费，不同分区键之间并行
+     * 主题须为顺序消息主题，消费端使用OrderConsumerBean/MessageOrderListener
+     * @param shardingKey 分区键，如账户号
+     */
+    public void sendOrdered(String content, String tag, String shardingKey) {
+        this.sendOrdered(content, tag, UUIDUtil.getUUID(), shardingKey);
+    }
+
+    public void sendOrdered(String content, String tag, String keyId, String shardingKey) {
+        this.sendOrdered(MessageUtils.encode(content), tag, keyId, shardingKey);
+    }
+
+    public void sendOrdered(byte[] body, String tag, String keyId, String shardingKey) {
+        Message msg = new Message(topic, tag, body);
+        if (keyId != null) {
+            msg.setKey(keyId);
+        }
+        msg.setShardingKey(shardingKey);
+        try {
+            SendResult sendResult = this.getOrderProducer().send(msg, shardingKey);
+            logger.debug("顺序消息发送成功:keyId：{}, shardingKey:{}, msgId:{} ", keyId, shardingKey, sendResult.getMessageId());
+        } catch (ONSClientException e) {
+            logger.error("顺序消息发送失败，e:{}", e);
+        }
+    }
+
+    /**
+     * 取得顺序消息生产者，使用本生产者的属性，实例名不同以免与普通生产者的分组冲突。
+     */
+    private OrderProducerBean getOrderProducer() {
+        if (orderProducer == null) {
+            synchronized (this) {
+                if (orderProducer == null) {
+                    Properties properties = new Properties();
+                    properties.putAll(this.getProperties());
+                    properties.setProperty(PropertyKeyConst.InstanceName,
+                            properties.getProperty(PropertyKeyConst.InstanceName, "DEFAULT") + "_order");
+                    OrderProducerBean producer = new OrderProducerBean();
+                    producer.setProperties(properties);
+                    producer.start();
+                    // 注册钩子，以便退出时关闭顺序消息生产者
+                    Runtime.getRuntime().addShutdownHook(new Thread(producer::shutdown));
+                    orderProducer = producer;
+                }
+            }
+        }
+        return orderProducer;
+    }
+
     /**
      * 单向发送
      * 单向发送：只负责发送消息，不等待服务器回应且没有回调函数触发，即只发送请求不等待应答；此方式发送消息的过程耗时非常短，一般在微秒级别；
@@ -90,7 +270,7 @@ public class BaseProducer extends ProducerBean {
     public boolean sendMsgOneway(String content, String tag, int delayTime) {
 
         Long startTime = System.currentTimeMillis();
-        Message message = new Message(topic, tag, content.getBytes());
+        Message message = new Message(topic, tag, MessageUtils.encode(content));
         //定时
         if (delayTime != 0) {
             message.setStartDeliverTime(System.currentTimeMillis() + (60 * 1000 * delayTime));
@@ -4,10 +4,13 @@ import com.aliyun.openservices.ons.api.Message;
 import com.aliyun.openservices.ons.api.SendResult;
 import com.aliyun.openservices.ons.api.bean.TransactionProducerBean;
 import com.aliyun.openservices.ons.api.transaction.LocalTransactionExecuter;
+import com.hsjry.plutus.sdk.utils.MessageUtils;
 import com.hsjry.plutus.sdk.utils.UUIDUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
+
 /**
  * 事务producer基础类
  * @Author qyf 
@@ -23,13 +26,44 @@ public class BaseTransactionProducer extends TransactionProducerBean {
     }
 
     public void sendMsg(String content, String tag, String keyId,LocalTransactionExecuter executer) {
+        this.sendMsg(content, tag, keyId, executer, null);
+    }
+
+    public void sendMsg(String content, String tag,LocalTransactionExecuter executer) {
+       this.sendMsg(content,tag, UUIDUtil.getUUID(),executer);
+    }
 
-        Message msg = new Message(topic, tag, content.getBytes());
+    /**
+     * 发送事务消息，arg原样传给本地事务执行器
+     */
+    public void sendMsg(String content, String tag, String keyId, LocalTransactionExecuter executer, Object arg) {
+        this.sendMsg(MessageUtils.encode(content), tag, keyId, executer, arg);
+    }
+
+    public void sendMsg(String content, String tag, LocalTransactionExecuter executer, Object arg) {
+        this.sendMsg(content, tag, UUIDUtil.getUUID(), executer, arg);
+    }
+
+    /**
+     * 发送已编码的事务消息内容，不再经过String转换
+     * @param body 消息内容，直接作为消息体，发送完成前不要修改
+     */
+    public void sendMsg(byte[] body, String tag, String keyId, LocalTransactionExecuter executer) {
+        this.sendMsg(body, tag, keyId, executer, null);
+    }
+
+    /**
+     * 发送已编码的事务消息内容，arg原样传给本地事务执行器
+     * @param body 消息内容，直接作为消息体，发送完成前不要修改
+     */
+    public void sendMsg(byte[] body, String tag, String keyId, LocalTransactionExecuter executer, Object arg) {
+
+        Message msg = new Message(topic, tag, body);
         if (keyId != null) {
             msg.setKey(keyId);
         }
         try {
-            SendResult sendResult = this.send(msg,executer, null);
+            SendResult sendResult = this.send(msg, executer, arg);
             logger.debug("事务消息发送成功:keyId：{}, tag:{}, msgId:{} ", keyId, tag, sendResult.getMessageId());
         }catch (Exception e) {
             // 消息发送失败，需要进行重试处理，可重新发送这条消息或持久化这条数据进行补偿处理
@@ -37,8 +71,24 @@ public class BaseTransactionProducer extends TransactionProducerBean {
         }
     }
 
-    public void sendMsg(String content, String tag,LocalTransactionExecuter executer) {
-       this.sendMsg(content,tag, UUIDUtil.getUUID(),executer);
+    public void sendMsg(byte[] body, String tag, LocalTransactionExecuter executer) {
+        this.sendMsg(body, tag, UUIDUtil.getUUID(), executer);
+    }
+
+    public void sendMsg(byte[] body, String tag, LocalTransactionExecuter executer, Object arg) {
+        this.sendMsg(body, tag, UUIDUtil.getUUID(), executer, arg);
+    }
+
+    /**
+     * 发送ByteBuffer中剩余的事务消息内容，缓冲区正好覆盖整个底层数组时不复制
+     * @param body 消息内容，不改变其position
+     */
+    public void sendMsg(ByteBuffer body, String tag, String keyId, LocalTransactionExecuter executer) {
+        this.sendMsg(body, tag, keyId, executer, null);
+    }
+
+    public void sendMsg(ByteBuffer body, String tag, String keyId, LocalTransactionExecuter executer, Object arg) {
+        this.sendMsg(MessageUtils.toBytes(body), tag, keyId, executer, arg);
     }
 
 }
@@ -0,0 +1,25 @@
+package com.hsjry.plutus.sdk.jms;
+
+import com.aliyun.openservices.ons.api.ConsumeContext;
+import com.aliyun.openservices.ons.api.Message;
+import com.aliyun.openservices.ons.api.MessageListener;
+
+import java.util.List;
+
+/**
+ * 批量消费监听器
+ * 线下环境一次拉取的消息整批交给consumeBatch处理，批量大小由ConsumerBean属性ConsumeMessageBatchMaxSize配置；
+ * 线上环境（阿里云sdk）仍逐条调用consume。
+ * @Author qyf
+ * @Date 2019/8/8
+ **/
+public interface BatchMessageListener extends MessageListener {
+
+    /**
+     * 批量消费消息
+     * @param messages 本批消息，按队列位点有序
+     * @param context
+     * @return 从第一条起连续消费成功的条数，其后的消息会重新投递；返回messages.size()表示整批成功
+     */
+    int consumeBatch(List<Message> messages, ConsumeContext context);
+}
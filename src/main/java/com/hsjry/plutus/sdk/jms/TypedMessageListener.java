@@ -0,0 +1,41 @@
+package com.hsjry.plutus.sdk.jms;
+
+import com.aliyun.openservices.ons.api.Action;
+import com.aliyun.openservices.ons.api.ConsumeContext;
+import com.aliyun.openservices.ons.api.Message;
+import com.aliyun.openservices.ons.api.MessageListener;
+import com.hsjry.plutus.sdk.serializer.MessageSerializer;
+
+/**
+ * 对象消息监听，消息体直接反序列化为对象，不经过String。
+ * 线上阿里云sdk和线下rocketMq消费都适用，序列化方式须与生产者sendObject一致。
+ *
+ * @author qyf
+ * @Date 2019/8/19
+ */
+public abstract class TypedMessageListener<T> implements MessageListener {
+
+    private final Class<T> type;
+
+    private final MessageSerializer serializer;
+
+    public TypedMessageListener(Class<T> type, MessageSerializer serializer) {
+        this.type = type;
+        this.serializer = serializer;
+    }
+
+    @Override
+    public Action consume(Message message, ConsumeContext context) {
+        return this.consume(serializer.deserialize(message.getBody(), type), message, context);
+    }
+
+    /**
+     * 消费对象消息
+     *
+     * @param payload 消息对象
+     * @param message 原消息（取tag、key等）
+     * @param context
+     * @return
+     */
+    public abstract Action consume(T payload, Message message, ConsumeContext context);
+}
@@ -0,0 +1,96 @@
+package com.hsjry.plutus.sdk.mq;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按发送耗时自适应的并发限制（AIMD）。
+ * 发送正常时并发上限每轮加一（每次加1/上限），发送失败或耗时明显高于基线时乘性减小；
+ * 在途数达到上限时发送方阻塞等待，不会超时失败。
+ *
+ * @author qyf
+ * @Date 2019/8/27
+ */
+public class AimdLimiter {
+
+    /** 耗时超过基线的倍数视为拥塞 */
+    private static final double TOLERANCE = 2.0;
+
+    /** 拥塞时上限的缩小比例 */
+    private static final double BACKOFF_RATIO = 0.9;
+
+    /** 基线耗时的平滑系数 */
+    private static final double SMOOTHING = 0.01;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition available = lock.newCondition();
+
+    /** 当前并发上限 */
+    private double limit;
+
+    /** 在途数 */
+    private int inflight;
+
+    /** 基线耗时（毫秒，成功发送耗时的平滑值） */
+    private double baseline;
+
+    public AimdLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = Math.max(minLimit, 1);
+        this.maxLimit = Math.max(maxLimit, this.minLimit);
+        this.limit = Math.min(Math.max(initialLimit, this.minLimit), this.maxLimit);
+    }
+
+    /**
+     * 取得并发名额，在途数达到上限时阻塞等待。
+     *
+     * @throws InterruptedException
+     */
+    public void acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (inflight >= (int) limit) {
+                available.await();
+            }
+            inflight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 归还并发名额，并按本次发送的结果调整上限。
+     *
+     * @param latencyMs
+     * @param failed
+     */
+    public void release(long latencyMs, boolean failed) {
+        lock.lock();
+        try {
+            inflight--;
+            if (failed || (baseline > 0 && latencyMs > baseline * TOLERANCE + 1)) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+            } else {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            if (!failed) {
+                baseline = baseline == 0 ? latencyMs : baseline * (1 - SMOOTHING) + latencyMs * SMOOTHING;
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getLimit() {
+        return (long) limit;
+    }
+
+    public long getInflight() {
+        return inflight;
+    }
+}
@@ -0,0 +1,145 @@
+package com.hsjry.plutus.sdk.mq;
+
+import com.hsjry.plutus.sdk.component.EnvComponent;
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.client.producer.SendCallback;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.common.message.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 线下rocketMq的异步发送执行器。
+ * 通过DefaultMQProducer.send(Message, SendCallback)发送，rocketMq的回调只归还并发名额，返回的future转到有界线程池中完成：
+ * 不替换通信客户端的回调线程池（共享客户端实例时消费者的拉取回调也在其中执行），调用方的后续处理也不占用rocketMq的线程。
+ * 在途消息数受信号量限制（future完成后才归还名额），达到上限时发送方阻塞等待，超时则抛出异常；回调队列按在途上限留足容量，不会拒绝；
+ * 生产者配置了自适应并发时，先按其并发上限阻塞等待。
+ *
+ * @author qyf
+ * @Date 2019/8/6
+ */
+@Component
+public class AsyncSendExecutor {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    private EnvComponent envComponent;
+
+    /** 在途消息名额 */
+    private Semaphore inflight;
+
+    /** 发送结果回调线程池 */
+    private ThreadPoolExecutor callbackExecutor;
+
+    @PostConstruct
+    public void init() {
+        this.inflight = new Semaphore(envComponent.getAsyncMaxInflight());
+        // 待完成的future不超过在途上限，队列不会满；不能用CallerRunsPolicy，否则调用方的后续处理会在rocketMq的线程上执行
+        this.callbackExecutor = new ThreadPoolExecutor(envComponent.getAsyncCallbackThreads(),
+                envComponent.getAsyncCallbackThreads(), 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(envComponent.getAsyncMaxInflight() + envComponent.getAsyncCallbackQueueSize()),
+                new CustomizableThreadFactory("plutus-mq-callback-"));
+    }
+
+    /**
+     * 异步发送消息，返回的future在回调线程池中完成。
+     *
+     * @param producer
+     * @param message
+     * @param limiter  生产者的发送限制
+     * @return
+     */
+    public CompletableFuture<SendResult> send(DefaultMQProducer producer, Message message, SendLimiter limiter) {
+        long start = limiter.acquireConcurrency();
+        try {
+            this.acquire();
+        } catch (RuntimeException e) {
+            limiter.releaseConcurrency(start, true);
+            throw e;
+        }
+        CompletableFuture<SendResult> future = new CompletableFuture<>();
+        try {
+            producer.send(message, new SendCallback() {
+                @Override
+                public void onSuccess(SendResult sendResult) {
+                    limiter.releaseConcurrency(start, false);
+                    AsyncSendExecutor.this.complete(() -> future.complete(sendResult));
+                }
+
+                @Override
+                public void onException(Throwable e) {
+                    limiter.releaseConcurrency(start, true);
+                    AsyncSendExecutor.this.complete(() -> future.completeExceptionally(e));
+                }
+            });
+        } catch (Exception e) {
+            // 未进入发送队列（如线程池拒绝），回调不会触发
+            inflight.release();
+            limiter.releaseConcurrency(start, true);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 在回调线程池中完成future后归还在途名额。
+     */
+    private void complete(Runnable completion) {
+        try {
+            callbackExecutor.execute(() -> {
+                try {
+                    completion.run();
+                } finally {
+                    inflight.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 只在退出时线程池关闭后发生，直接完成，不丢结果
+            try {
+                completion.run();
+            } finally {
+                inflight.release();
+            }
+        }
+    }
+
+    /**
+     * 取得在途名额，在途消息已满时阻塞等待。
+     */
+    private void acquire() {
+        try {
+            if (!inflight.tryAcquire(envComponent.getAsyncAcquireTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                throw new RuntimeException("异步消息在途数量已达上限：" + envComponent.getAsyncMaxInflight());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 取得当前在途的异步消息数。
+     *
+     * @return
+     */
+    public int getInflightCount() {
+        return envComponent.getAsyncMaxInflight() - inflight.availablePermits();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        callbackExecutor.shutdown();
+    }
+}
@@ -0,0 +1,247 @@
+package com.hsjry.plutus.sdk.mq;
+
+import com.hsjry.plutus.sdk.component.EnvComponent;
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageClientIDSetter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 线下rocketMq的批量发送。
+ * 按rocketMq的批量消息规则（同一主题、不含延时消息、单批不超过maxMessageSize即默认4M）拆批，
+ * 通过DefaultMQProducer.send(Collection)发送，每条消息单独返回发送结果或异常。
+ * 开启自动攒批后，同一主题的单条消息在时间窗口内攒成一批再发送。
+ *
+ * @author qyf
+ * @Date 2019/8/7
+ */
+@Component
+public class BatchSender {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /** 单条消息编码后的固定开销：totalSize、magicCode、bodyCRC、flag、bodyLength、propertiesLength */
+    private static final int MESSAGE_OVERHEAD = 4 + 4 + 4 + 4 + 4 + 2;
+
+    @Autowired
+    private EnvComponent envComponent;
+
+    /**
+     * pid/主题 -> 待发送的消息，与Producer的路由一致，不同生产者的同名主题各自攒批
+     */
+    private final Map<String, Accumulator> accumulatorMap = new ConcurrentHashMap<>();
+
+    /** 攒批定时刷出线程 */
+    private ScheduledExecutorService flushExecutor;
+
+    @PostConstruct
+    public void init() {
+        if (!envComponent.isAutoBatchEnabled()) {
+            return;
+        }
+        this.flushExecutor = Executors.newScheduledThreadPool(2, new CustomizableThreadFactory("plutus-mq-batch-"));
+        long windowMs = envComponent.getAutoBatchWindowMs();
+        this.flushExecutor.scheduleWithFixedDelay(this::flushAll, windowMs, windowMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 是否开启了自动攒批。
+     *
+     * @return
+     */
+    public boolean isAutoBatchEnabled() {
+        return envComponent.isAutoBatchEnabled();
+    }
+
+    /**
+     * 立即批量发送，返回每条消息的发送结果。
+     *
+     * @param mqEntity
+     * @param messages 同一主题的消息
+     * @return
+     */
+    public List<CompletableFuture<SendResult>> send(MqEntity mqEntity, List<Message> messages) {
+        List<CompletableFuture<SendResult>> futures = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            futures.add(new CompletableFuture<>());
+        }
+        this.sendChunks(mqEntity, messages, futures);
+        return futures;
+    }
+
+    /**
+     * 提交一条消息到所属主题的攒批队列，窗口到期或攒满后批量发送。
+     *
+     * @param mqEntity
+     * @param message
+     * @return
+     */
+    public CompletableFuture<SendResult> submit(MqEntity mqEntity, Message message) {
+        CompletableFuture<SendResult> future = new CompletableFuture<>();
+        String key = mqEntity.getPid() + "/" + message.getTopic();
+        Accumulator accumulator = accumulatorMap.get(key);
+        if (accumulator == null) {
+            accumulator = accumulatorMap.computeIfAbsent(key, k -> new Accumulator(mqEntity));
+        }
+        if (accumulator.add(message, future)) {
+            // 已攒满，不等窗口到期
+            Accumulator full = accumulator;
+            flushExecutor.execute(() -> this.flush(full));
+        }
+        return future;
+    }
+
+    /**
+     * 刷出所有主题的待发送消息。
+     */
+    private void flushAll() {
+        accumulatorMap.values().forEach(this::flush);
+    }
+
+    private void flush(Accumulator accumulator) {
+        List<Message> messages = new ArrayList<>();
+        List<CompletableFuture<SendResult>> futures = new ArrayList<>();
+        accumulator.drainTo(messages, futures);
+        if (!messages.isEmpty()) {
+            this.sendChunks(accumulator.mqEntity, messages, futures);
+        }
+    }
+
+    /**
+     * 按批量消息规则拆批发送，延时消息不能批量发送，逐条发送。
+     *
+     * @param mqEntity
+     * @param messages
+     * @param futures
+     */
+    private void sendChunks(MqEntity mqEntity, List<Message> messages, List<CompletableFuture<SendResult>> futures) {
+        int limit = mqEntity.getDefaultMQProducer().getMaxMessageSize();
+        int from = 0;
+        long bytes = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            if (message.getDelayTimeLevel() > 0) {
+                this.sendChunk(mqEntity, messages, futures, from, i);
+                this.sendChunk(mqEntity, messages, futures, i, i + 1);
+                from = i + 1;
+                bytes = 0;
+                continue;
+            }
+            int size = estimateSize(message);
+            if (i > from && bytes + size > limit) {
+                this.sendChunk(mqEntity, messages, futures, from, i);
+                from = i;
+                bytes = 0;
+            }
+            bytes += size;
+        }
+        this.sendChunk(mqEntity, messages, futures, from, messages.size());
+    }
+
+    /**
+     * 发送[from, to)区间的消息，按主题的发送策略重试，结果按消息逐条回填。
+     */
+    private void sendChunk(MqEntity mqEntity, List<Message> messages, List<CompletableFuture<SendResult>> futures,
+                           int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        DefaultMQProducer producer = mqEntity.getDefaultMQProducer();
+        try {
+            if (to - from == 1) {
+                futures.get(from).complete(mqEntity.getSendPolicy().send(producer, messages.get(from)));
+                return;
+            }
+
+            List<Message> chunk = messages.subList(from, to);
+            SendResult batchResult = mqEntity.getSendPolicy().execute(producer.getSendMsgTimeout(),
+                    timeout -> producer.send(chunk, timeout));
+            // 批量发送时已为每条消息生成了唯一id，队列位点按顺序递增
+            for (int i = from; i < to; i++) {
+                Message message = messages.get(i);
+                SendResult sendResult = new SendResult(batchResult.getSendStatus(),
+                        MessageClientIDSetter.getUniqID(message), null,
+                        batchResult.getMessageQueue(), batchResult.getQueueOffset() + (i - from));
+                futures.get(i).complete(sendResult);
+            }
+            logger.debug("批量消息发送成功，主题：{}，条数：{}", messages.get(from).getTopic(), to - from);
+        } catch (Exception e) {
+            logger.error("批量消息发送失败，主题：{}，条数：{}，e:{}", messages.get(from).getTopic(), to - from, e);
+            for (int i = from; i < to; i++) {
+                futures.get(i).completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 估算消息按批量格式编码后的大小。
+     */
+    private static int estimateSize(Message message) {
+        int size = MESSAGE_OVERHEAD + (message.getBody() == null ? 0 : message.getBody().length);
+        Map<String, String> properties = message.getProperties();
+        if (properties != null) {
+            for (Map.Entry<String, String> entry : properties.entrySet()) {
+                // 属性编码为 key + 分隔符 + value + 分隔符
+                size += entry.getKey().length() + entry.getValue().length() + 2;
+            }
+        }
+        // 发送时补充的唯一id等属性
+        return size + 64;
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (flushExecutor == null) {
+            return;
+        }
+        flushExecutor.shutdown();
+        this.flushAll();
+    }
+
+    /**
+     * 单个主题的攒批队列。
+     */
+    private final class Accumulator {
+        private final MqEntity mqEntity;
+        private List<Message> messages = new ArrayList<>();
+        private List<CompletableFuture<SendResult>> futures = new ArrayList<>();
+
+        Accumulator(MqEntity mqEntity) {
+            this.mqEntity = mqEntity;
+        }
+
+        /**
+         * 加入一条消息，返回是否已攒满。
+         */
+        synchronized boolean add(Message message, CompletableFuture<SendResult> future) {
+            messages.add(message);
+            futures.add(future);
+            return messages.size() == envComponent.getAutoBatchMaxMessages();
+        }
+
+        synchronized void drainTo(List<Message> messageList, List<CompletableFuture<SendResult>> futureList) {
+            if (messages.isEmpty()) {
+                return;
+            }
+            messageList.addAll(messages);
+            futureList.addAll(futures);
+            messages = new ArrayList<>();
+            futures = new ArrayList<>();
+        }
+    }
+}
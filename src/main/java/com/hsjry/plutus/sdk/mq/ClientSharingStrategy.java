@@ -0,0 +1,126 @@
+package com.hsjry.plutus.sdk.mq;
+
+import com.hsjry.plutus.sdk.component.EnvComponent;
+import com.hsjry.plutus.sdk.component.MqMetrics;
+import org.apache.rocketmq.client.ClientConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 线下消息客户端共享策略。
+ * rocketMq按 ip@instanceName[@unitName] 复用MQClientInstance（netty客户端、定时任务、心跳），
+ * 通过统一设置instanceName控制生产者、消费者是否共用客户端实例：
+ * shared：全部共用一个实例（默认）；per-group：每个分组一个实例；per-bean：每个阿里云sdk bean一个实例。
+ * 共用实例时生产者和消费者也共用通信客户端的回调线程池（消费者的拉取回调在其中执行），不要在客户端上替换回调线程池。
+ *
+ * @author qyf
+ * @Date 2019/8/14
+ */
+@Component
+public class ClientSharingStrategy {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /** 客户端实例相关的线程名前缀 */
+    private static final String[] CLIENT_THREAD_PREFIXES = {"NettyClient", "MQClientFactoryScheduledThread",
+            "PullMessageService", "RebalanceService", "ClientHouseKeepingService", "ConsumeMessageThread_"};
+
+    @Autowired
+    private EnvComponent envComponent;
+
+    @Autowired
+    private MqMetrics mqMetrics;
+
+    /** 共享方式 */
+    private Sharing sharing;
+
+    /**
+     * 客户端实例id -> 使用该实例的客户端数
+     */
+    private final Map<String, Integer> clientIdMap = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        this.sharing = Sharing.parse(envComponent.getClientSharing());
+        mqMetrics.gauge("client.instances", () -> (long) clientIdMap.size());
+        mqMetrics.gauge("client.threads", ClientSharingStrategy::countClientThreads);
+    }
+
+    /**
+     * 按共享方式设置客户端的instanceName和unitName。
+     *
+     * @param config     线下生产者或消费者
+     * @param clientType 客户端类型
+     * @param group      分组
+     * @param bean       对应的阿里云sdk bean
+     */
+    public void configure(ClientConfig config, String clientType, String group, Object bean) {
+        switch (sharing) {
+            case PER_GROUP:
+                config.setInstanceName(group);
+                break;
+            case PER_BEAN:
+                config.setInstanceName(clientType + "_" + Integer.toHexString(System.identityHashCode(bean)));
+                break;
+            default:
+                config.setInstanceName(envComponent.getClientInstanceName());
+        }
+        String unitName = envComponent.getClientUnitName();
+        if (unitName != null && !unitName.trim().isEmpty()) {
+            config.setUnitName(unitName.trim());
+        }
+
+        String clientId = config.buildMQClientId();
+        clientIdMap.merge(clientId, 1, Integer::sum);
+        logger.info("消息客户端实例：类型：{}，分组：{}，实例：{}", clientType, group, clientId);
+    }
+
+    /**
+     * 取得客户端实例id及使用该实例的客户端数。
+     *
+     * @return
+     */
+    public Map<String, Integer> getClientIds() {
+        return new ConcurrentHashMap<>(clientIdMap);
+    }
+
+    /**
+     * 统计rocketMq客户端相关的线程数。
+     */
+    private static long countClientThreads() {
+        Set<Thread> threads = Thread.getAllStackTraces().keySet();
+        long count = 0;
+        for (Thread thread : threads) {
+            for (String prefix : CLIENT_THREAD_PREFIXES) {
+                if (thread.getName().startsWith(prefix)) {
+                    count++;
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 共享方式。
+     */
+    enum Sharing {
+        SHARED, PER_GROUP, PER_BEAN;
+
+        static Sharing parse(String value) {
+            if ("per-group".equalsIgnoreCase(value)) {
+                return PER_GROUP;
+            }
+            if ("per-bean".equalsIgnoreCase(value)) {
+                return PER_BEAN;
+            }
+            return SHARED;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.hsjry.plutus.sdk.mq;
+
+import lombok.Data;
+
+/**
+ * 消息客户端启动记录。
+ * @author qyf
+ * @Date 2019/8/13
+ */
+@Data
+public class ClientStartRecord {
+    /** 客户端类型：producer、transactionProducer、consumer */
+    private String clientType;
+
+    /** 客户端名称（分组） */
+    private String name;
+
+    /** 启动耗时（毫秒） */
+    private long costMillis;
+
+    /** 是否启动成功 */
+    private boolean success;
+
+    /** 失败原因 */
+    private String message;
+}
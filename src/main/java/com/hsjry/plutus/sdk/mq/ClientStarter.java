@@ -0,0 +1,113 @@
+package com.hsjry.plutus.sdk.mq;
+
+import com.hsjry.plutus.sdk.component.EnvComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 消息客户端启动器。
+ * 各客户端的start()都要与name server交互，在有界线程池中并行启动，整体等待不超过启动超时时间，
+ * 每个客户端的耗时和结果记入启动报告。
+ *
+ * @author qyf
+ * @Date 2019/8/13
+ */
+@Component
+public class ClientStarter {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    private EnvComponent envComponent;
+
+    @Autowired
+    private StartupReport startupReport;
+
+    /**
+     * 并行启动一组客户端。
+     *
+     * @param clientType 客户端类型
+     * @param actions    分组 -> 启动动作
+     * @return 启动失败或超时的分组
+     */
+    public List<String> startAll(String clientType, Map<String, StartAction> actions) {
+        List<String> failed = new ArrayList<>();
+        if (actions.isEmpty()) {
+            return failed;
+        }
+
+        long begin = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(envComponent.getStartupThreads(), actions.size()),
+                new CustomizableThreadFactory("plutus-mq-startup-"));
+        try {
+            Map<String, Future<Boolean>> futureMap = new LinkedHashMap<>();
+            actions.forEach((name, action) -> futureMap.put(name, pool.submit(() -> this.start(clientType, name, action))));
+
+            long deadline = begin + envComponent.getStartupTimeoutMs();
+            for (Map.Entry<String, Future<Boolean>> entry : futureMap.entrySet()) {
+                try {
+                    long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                    if (!entry.getValue().get(remaining, TimeUnit.MILLISECONDS)) {
+                        failed.add(entry.getKey());
+                    }
+                } catch (TimeoutException e) {
+                    logger.error("消息客户端启动超时：类型：{}，分组：{}", clientType, entry.getKey());
+                    failed.add(entry.getKey());
+                } catch (ExecutionException e) {
+                    failed.add(entry.getKey());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            // 超时未完成的启动继续在后台执行
+            pool.shutdown();
+        }
+        logger.info("消息客户端并行启动结束：类型：{}，数量：{}，失败：{}，耗时：{}ms",
+                clientType, actions.size(), failed, System.currentTimeMillis() - begin);
+        return failed;
+    }
+
+    /**
+     * 启动单个客户端并记录耗时。
+     *
+     * @param clientType
+     * @param name
+     * @param action
+     * @return 是否启动成功
+     */
+    public boolean start(String clientType, String name, StartAction action) {
+        long begin = System.currentTimeMillis();
+        try {
+            action.start();
+            startupReport.record(clientType, name, System.currentTimeMillis() - begin, null);
+            return true;
+        } catch (Exception e) {
+            startupReport.record(clientType, name, System.currentTimeMillis() - begin, e);
+            logger.error("消息客户端启动失败：类型：{}，分组：{}----->{}", clientType, name, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 客户端启动动作。
+     */
+    @FunctionalInterface
+    public interface StartAction {
+        void start() throws Exception;
+    }
+}
@@ -0,0 +1,177 @@
+package com.hsjry.plutus.sdk.mq;
+
+import com.aliyun.openservices.ons.api.Action;
+import com.aliyun.openservices.ons.api.ConsumeContext;
+import com.aliyun.openservices.ons.api.Message;
+import com.aliyun.openservices.ons.api.MessageListener;
+import com.hsjry.plutus.sdk.codec.CodecStage;
+import com.hsjry.plutus.sdk.component.MqMetrics;
+import com.hsjry.plutus.sdk.dedup.IdempotentFilter;
+import com.hsjry.plutus.sdk.jms.BatchMessageListener;
+import com.hsjry.plutus.sdk.utils.MessageUtils;
+import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
+import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
+import org.apache.rocketmq.client.consumer.listener.MessageListenerConcurrently;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 线下rocketMq消费监听到阿里云sdk消费监听的桥接。
+ * 本批消息全部转换后交给MessageListener逐条消费（或BatchMessageListener整批消费），
+ * 消费失败（ReconsumeLater、异常或消息解压失败）时通过ackIndex只让失败的消息及其后的消息按订阅的重试延时重新投递，
+ * 重试次数用尽的消息转入本地死信；开启去重时已消费成功过的消息直接确认。
+ *
+ * @author qyf
+ * @Date 2019/8/8
+ */
+public class ConsumeListenerBridge implements MessageListenerConcurrently {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /** 消费分组 */
+    private final String group;
+
+    /** 线下rocketMq的主题 */
+    private final String topic;
+
+    /** 阿里云sdk的消费监听 */
+    private final MessageListener messageListener;
+
+    /** 订阅过滤及统计 */
+    private final SubscriptionFilter subscriptionFilter;
+
+    /** 消息体解压 */
+    private final CodecStage codecStage;
+
+    /** 延时消息投递偏差统计 */
+    private final DeliveryDeviation deliveryDeviation;
+
+    /** 消费统计，供流控调整拉取 */
+    private final FlowStats flowStats;
+
+    /** 消费去重 */
+    private final IdempotentFilter idempotentFilter;
+
+    /** 消费重试策略 */
+    private final RetryPolicy retryPolicy;
+
+    public ConsumeListenerBridge(SubscriptionEntity entity, MqMetrics metrics, CodecStage codecStage, FlowStats flowStats) {
+        this.codecStage = codecStage;
+        this.flowStats = flowStats;
+        this.idempotentFilter = entity.getIdempotentFilter();
+        this.retryPolicy = entity.getRetryPolicy();
+        this.group = entity.getGroup();
+        this.topic = entity.getTopic();
+        this.messageListener = entity.getMessageListener();
+        this.subscriptionFilter = new SubscriptionFilter(entity, metrics);
+        this.deliveryDeviation = new DeliveryDeviation(entity.getTopic(), metrics);
+    }
+
+    @Override
+    public ConsumeConcurrentlyStatus consumeMessage(List<MessageExt> msgs, ConsumeConcurrentlyContext context) {
+        logger.info("收到线下消息: {},{},{}", group, topic, msgs);
+        subscriptionFilter.recordOffsets(msgs);
+        List<Message> messages = new ArrayList<>(msgs.size());
+        // 投递的消息在本批中的下标，客户端过滤掉的消息和重复投递的消息视为已消费
+        int[] positions = new int[msgs.size()];
+        // 解压或转换失败的消息按消费失败处理，其后的消息不再交给监听
+        boolean convertFailed = false;
+        for (int i = 0; i < msgs.size(); i++) {
+            MessageExt msg = msgs.get(i);
+            if (subscriptionFilter.accept(msg) && !idempotentFilter.isDuplicate(msg)) {
+                positions[messages.size()] = i;
+                retryPolicy.onDelivered(msg);
+                try {
+                    codecStage.decode(msg);
+                    deliveryDeviation.record(msg);
+                    messages.add(MessageUtils.toOnsMessage(msg));
+                } catch (Throwable e) {
+                    logger.error("消息解压或转换失败：{},{},msgId:{}，e:{}", group, topic, msg.getMsgId(), e);
+                    convertFailed = true;
+                    break;
+                }
+            }
+        }
+        int total = messages.size() + (convertFailed ? 1 : 0);
+        if (total == 0) {
+            return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+        }
+
+        int consumed = 0;
+        if (!messages.isEmpty()) {
+            long start = System.currentTimeMillis();
+            consumed = messageListener instanceof BatchMessageListener
+                    ? this.consumeBatch((BatchMessageListener) messageListener, messages)
+                    : this.consumeEach(messages);
+            flowStats.record(messages.size(), System.currentTimeMillis() - start);
+            consumed = Math.max(0, Math.min(consumed, messages.size()));
+        }
+        for (int i = 0; i < consumed; i++) {
+            idempotentFilter.markConsumed(msgs.get(positions[i]));
+            retryPolicy.onConsumed(msgs.get(positions[i]));
+        }
+        // 第一条失败的消息重试次数已用尽时转入本地死信，视为已消费
+        if (consumed < total && retryPolicy.deadLetter(msgs.get(positions[consumed]))) {
+            consumed++;
+        }
+        if (consumed < total) {
+            retryPolicy.onRetry(msgs.get(positions[consumed]), context);
+        }
+        // 解压失败的消息转入死信后，其后未处理的消息仍需重新投递
+        int failedIndex = consumed < total ? positions[consumed]
+                : convertFailed ? positions[total - 1] + 1 : msgs.size();
+        return this.ack(failedIndex, msgs.size(), context);
+    }
+
+    /**
+     * 整批交给批量消费监听。
+     *
+     * @return 连续消费成功的条数
+     */
+    private int consumeBatch(BatchMessageListener batchMessageListener, List<Message> messages) {
+        try {
+            return batchMessageListener.consumeBatch(messages, new ConsumeContext());
+        } catch (Throwable e) {
+            logger.error("批量消息消费异常：{},{}，e:{}", group, topic, e);
+            return 0;
+        }
+    }
+
+    /**
+     * 逐条消费，遇到失败即停止。
+     *
+     * @return 连续消费成功的条数
+     */
+    private int consumeEach(List<Message> messages) {
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            try {
+                Action action = messageListener.consume(message, new ConsumeContext());
+                if (action != Action.CommitMessage) {
+                    return i;
+                }
+            } catch (Throwable e) {
+                logger.error("消息消费异常：{},{},msgId:{}，e:{}", group, topic, message.getMsgID(), e);
+                return i;
+            }
+        }
+        return messages.size();
+    }
+
+    /**
+     * 按第一条未消费消息的下标设置ackIndex，ackIndex之后的消息由rocketMq重新投递。
+     */
+    private ConsumeConcurrentlyStatus ack(int failedIndex, int size, ConsumeConcurrentlyContext context) {
+        if (failedIndex >= size) {
+            return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+        }
+        if (failedIndex == 0) {
+            return ConsumeConcurrentlyStatus.RECONSUME_LATER;
+        }
+        context.setAckIndex(failedIndex - 1);
+        return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+    }
+}
@@ -1,16 +1,19 @@
 package com.hsjry.plutus.sdk.mq;
 
-import com.aliyun.openservices.ons.api.ConsumeContext;
-import com.aliyun.openservices.ons.api.Message;
-import com.aliyun.openservices.ons.api.MessageListener;
+import com.aliyun.openservices.ons.api.PropertyKeyConst;
 import com.aliyun.openservices.ons.api.bean.ConsumerBean;
+import com.aliyun.openservices.ons.api.bean.OrderConsumerBean;
 import com.aliyun.openservices.ons.api.bean.Subscription;
+import com.hsjry.plutus.sdk.codec.CodecStage;
 import com.hsjry.plutus.sdk.component.EnvComponent;
+import com.hsjry.plutus.sdk.component.MqMetrics;
+import com.hsjry.plutus.sdk.dedup.DedupStage;
 import com.hsjry.plutus.sdk.utils.AopTargetUtils;
 import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
 import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
 import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
 import org.apache.rocketmq.client.consumer.listener.MessageListenerConcurrently;
+import org.apache.rocketmq.client.consumer.listener.MessageListenerOrderly;
 import org.apache.rocketmq.client.exception.MQClientException;
 import org.apache.rocketmq.common.message.MessageExt;
 import org.slf4j.Logger;
@@ -20,8 +23,13 @@ import org.springframework.stereotype.Component;
 import org.springframework.util.CollectionUtils;
 
 import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 
 /**
  * 初始化消费者列表。
@@ -32,13 +40,49 @@ import java.util.Map;
 public class Consumer {
     Logger logger = LoggerFactory.getLogger(this.getClass());
 
+    /** 启动报告中的客户端类型 */
+    private static final String CLIENT_TYPE = "consumer";
+
+    /** ConsumerBean属性：每次从broker批量拉取的消息条数（阿里云sdk无此属性，仅线下生效） */
+    public static final String PULL_BATCH_SIZE = "PullBatchSize";
+
     /**取得所有替换前（阿里云消息sdk）消费者beans列表*/
     @Autowired(required = false)
     private List<ConsumerBean> consumerBeanList;
 
+    /**取得所有替换前（阿里云消息sdk）顺序消费者beans列表*/
+    @Autowired(required = false)
+    private List<OrderConsumerBean> orderConsumerBeanList;
+
     @Autowired
     private EnvComponent envComponent;
 
+    @Autowired
+    private MqMetrics mqMetrics;
+
+    @Autowired
+    private ClientStarter clientStarter;
+
+    @Autowired
+    private ClientSharingStrategy clientSharingStrategy;
+
+    @Autowired
+    private CodecStage codecStage;
+
+    @Autowired
+    private ConsumerFlowControl consumerFlowControl;
+
+    @Autowired
+    private DedupStage dedupStage;
+
+    @Autowired
+    private RetryPolicyResolver retryPolicyResolver;
+
+    /**
+     * 分组 -> 线下消费者
+     */
+    private Map<String, DefaultMQPushConsumer> consumerMap = new LinkedHashMap<>();
+
     /**
      * 替换阿里云sdk的消息队列beans为线下的消息对象（开发和测试环境，线上环境不变）。
      *
@@ -51,63 +95,201 @@ public class Consumer {
         }
 
         logger.info("经检测当前环境为开发或者测试环境：{}。",envComponent.getCurActiveProfile());
-        if(CollectionUtils.isEmpty(consumerBeanList)){
+        if(CollectionUtils.isEmpty(consumerBeanList) && CollectionUtils.isEmpty(orderConsumerBeanList)){
             logger.info("没有检测到消费者列表.......");
             return;
         }
 
         logger.info("开发和测试环境的消息消费者创建开始.........................");
-        consumerBeanList.forEach(consumerBean -> this.createConsumer(consumerBean));
+        // 同一分组的订阅共用一个消费者
+        Map<String, List<SubscriptionEntity>> groupMap = new LinkedHashMap<>();
+        if (consumerBeanList != null) {
+            consumerBeanList.forEach(consumerBean -> consumerBean.getSubscriptionTable().forEach((subscription, messageListener) -> {
+                SubscriptionEntity entity = this.resolveSubscription(consumerBean, consumerBean.getProperties(), subscription);
+                entity.setMessageListener(messageListener);
+                groupMap.computeIfAbsent(entity.getGroup(), group -> new ArrayList<>()).add(entity);
+            }));
+        }
+        // 顺序消费者
+        if (orderConsumerBeanList != null) {
+            orderConsumerBeanList.forEach(consumerBean -> consumerBean.getSubscriptionTable().forEach((subscription, orderListener) -> {
+                SubscriptionEntity entity = this.resolveSubscription(consumerBean, consumerBean.getProperties(), subscription);
+                entity.setOrderListener(orderListener);
+                groupMap.computeIfAbsent(entity.getGroup(), group -> new ArrayList<>()).add(entity);
+            }));
+        }
+        groupMap.forEach(this::createConsumer);
+
+        // 并行启动所有消费者
+        Map<String, ClientStarter.StartAction> actions = new LinkedHashMap<>();
+        consumerMap.forEach((group, consumer) -> actions.put(group, consumer::start));
+        List<String> failed = clientStarter.startAll(CLIENT_TYPE, actions);
+        if (!failed.isEmpty()) {
+            throw new RuntimeException("消息消费者启动失败：" + failed);
+        }
         logger.info("开发和测试环境的消息消费者创建结束。");
     }
 
     /**
-     * 创建消费者。
+     * 解析订阅的分组和线下主题。
+     *
+     * @param consumerBean ConsumerBean或OrderConsumerBean
+     * @param properties
+     * @param subscription
+     * @return
+     */
+    private SubscriptionEntity resolveSubscription(Object consumerBean, Properties properties, Subscription subscription) {
+        SubscriptionEntity entity = new SubscriptionEntity();
+        entity.setSubscription(subscription);
+        entity.setConsumerBean(consumerBean);
+        entity.setProperties(properties);
+        // 生产者id
+        String pid = AopTargetUtils.getPid(properties, subscription.getTopic());
+        entity.setGroup(envComponent.getGroup(pid));
+        entity.setTopic(envComponent.getCurActiveProfile() + "_" + subscription.getTopic());
+        entity.setIdempotentFilter(dedupStage.resolve(entity));
+        entity.setRetryPolicy(retryPolicyResolver.resolve(entity));
+        return entity;
+    }
+
+    /**
+     * 创建消费者（启动前），一个分组一个消费者，订阅该分组下的所有主题并按主题分派消息。
+     * 顺序订阅的分组注册顺序消费监听，同一分组不能同时有普通订阅和顺序订阅。
      *
-     * @param consumerBean
+     * @param group
+     * @param entities
      */
-    private void createConsumer(ConsumerBean consumerBean){
-
-        // 消息主题
-        Map<Subscription, MessageListener> map = consumerBean.getSubscriptionTable();
-        map.keySet().stream().forEach(subscription -> {
-            try {
-                // 生产者id
-                String pid = AopTargetUtils.getPid(consumerBean.getProperties(), subscription.getTopic());
-                String group =  envComponent.getGroup(pid);
-                DefaultMQPushConsumer consumer = new DefaultMQPushConsumer(group);
-                consumer.setNamesrvAddr(envComponent.getMqServer());
-                String topic = envComponent.getCurActiveProfile() + "_" + subscription.getTopic();
-                consumer.subscribe(topic, "*");
-
-                // 取得消费者
-                MessageListener messageListener = map.get(subscription);
+    private void createConsumer(String group, List<SubscriptionEntity> entities) {
+        try {
+            DefaultMQPushConsumer consumer = new DefaultMQPushConsumer(group);
+            consumer.setNamesrvAddr(envComponent.getMqServer());
+            // 按共享策略设置客户端实例
+            clientSharingStrategy.configure(consumer, CLIENT_TYPE, group, entities.get(0).getConsumerBean());
 
+            // 按消费耗时和本地缓存动态调整拉取
+            FlowStats flowStats = consumerFlowControl.register(group, consumer);
+            boolean orderly = entities.get(0).isOrderly();
+            Map<String, MessageListenerConcurrently> listenerMap = new HashMap<>();
+            Map<String, MessageListenerOrderly> orderlyListenerMap = new HashMap<>();
+            for (SubscriptionEntity entity : entities) {
+                if (entity.isOrderly() != orderly) {
+                    throw new RuntimeException("同一分组不能同时有普通订阅和顺序订阅：" + group);
+                }
+                if (listenerMap.containsKey(entity.getTopic()) || orderlyListenerMap.containsKey(entity.getTopic())) {
+                    logger.error("同一分组重复订阅主题，忽略后一个订阅：分组：{}，主题：{}", group, entity.getTopic());
+                    continue;
+                }
+                // 按订阅表达式（tag或SQL92）由broker过滤
+                SubscriptionFilter.subscribe(consumer, entity);
                 // 注册消费者
-                consumer.registerMessageListener((MessageListenerConcurrently) (msgs, context) -> {
-                    logger.info("收到线下消息: {},{},{}", group, topic, msgs);
-                    Message message = new Message();
-                    // 消息内容
-                    byte[] bytes = msgs.get(0).getBody();
-                    message.setBody(bytes);
-
-                    // 消息标签
-                    String tags = msgs.get(0).getTags();
-                    message.setTag(tags);
-                    message.setKey(msgs.get(0).getKeys());
-                    message.setMsgID(msgs.get(0).getMsgId());
-                    // 消息主题
-                    message.setTopic(topic);
-                    messageListener.consume(message, new ConsumeContext());
-                    return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
-                });
-
-                consumer.start();
-                logger.info("创建消息消费者成功:主题：{}，分组：{}",topic, group);
-            } catch(Exception e){
-                throw new RuntimeException(e);
+                if (orderly) {
+                    orderlyListenerMap.put(entity.getTopic(), new OrderlyListenerBridge(entity, mqMetrics, codecStage, flowStats));
+                } else {
+                    listenerMap.put(entity.getTopic(), new ConsumeListenerBridge(entity, mqMetrics, codecStage, flowStats));
+                }
             }
-        });
+
+            // 消费线程数、重试次数、超时及批量大小
+            this.applyConsumerProperties(consumer, entities);
+
+            if (orderly) {
+                consumer.registerMessageListener(orderlyListenerMap.size() == 1
+                        ? orderlyListenerMap.values().iterator().next()
+                        : new OrderlyTopicDispatchListener(orderlyListenerMap));
+            } else if (listenerMap.size() == 1) {
+                consumer.registerMessageListener(listenerMap.values().iterator().next());
+            } else {
+                consumer.registerMessageListener(new TopicDispatchListener(listenerMap));
+            }
+
+            consumerMap.put(group, consumer);
+            logger.info("创建消息消费者成功:分组：{}，主题：{}，顺序消费：{}", group,
+                    orderly ? orderlyListenerMap.keySet() : listenerMap.keySet(), orderly);
+        } catch(Exception e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 按ConsumerBean的属性设置线下消费者：
+     * ConsumeThreadNums（消费线程数）、MaxReconsumeTimes（最大重试次数）、ConsumeTimeout（消费超时，分钟）、
+     * ConsumeMessageBatchMaxSize（批量消费大小）、PullBatchSize（批量拉取大小）。
+     * 每个属性都可以按订阅单独覆盖，属性名为"主题.属性名"，如：SDHS_MSG_NOTICE_TOPIC_test2.ConsumeThreadNums=5；
+     * 同一分组的多个订阅共用消费者，各订阅的配置（含未配置）必须一致，否则启动失败，需要不同配置的订阅请使用不同的分组。
+     * 顺序消费的分组批量消费大小不能超过1。
+     *
+     * @param consumer
+     * @param entities
+     */
+    private void applyConsumerProperties(DefaultMQPushConsumer consumer, List<SubscriptionEntity> entities) {
+        String group = consumer.getConsumerGroup();
+        Integer threadNums = getGroupIntProperty(group, entities, PropertyKeyConst.ConsumeThreadNums);
+        if (threadNums != null) {
+            consumer.setConsumeThreadMin(threadNums);
+            consumer.setConsumeThreadMax(threadNums);
+        }
+        Integer maxReconsumeTimes = getGroupIntProperty(group, entities, PropertyKeyConst.MaxReconsumeTimes);
+        if (maxReconsumeTimes != null) {
+            consumer.setMaxReconsumeTimes(maxReconsumeTimes);
+        }
+        Integer consumeTimeout = getGroupIntProperty(group, entities, PropertyKeyConst.ConsumeTimeout);
+        if (consumeTimeout != null) {
+            consumer.setConsumeTimeout(consumeTimeout);
+        }
+        Integer batchMaxSize = getGroupIntProperty(group, entities, PropertyKeyConst.ConsumeMessageBatchMaxSize);
+        if (batchMaxSize != null && batchMaxSize > 1 && entities.get(0).isOrderly()) {
+            // 顺序消费失败时整批挂起重试，批内已成功的消息会被重复消费
+            logger.error("顺序消费的分组不支持批量消费：分组：{}，批量消费大小：{}", group, batchMaxSize);
+            throw new RuntimeException("顺序消费的分组不支持批量消费，请去掉ConsumeMessageBatchMaxSize配置：" + group);
+        }
+        if (batchMaxSize != null) {
+            consumer.setConsumeMessageBatchMaxSize(batchMaxSize);
+        }
+        Integer pullBatchSize = getGroupIntProperty(group, entities, PULL_BATCH_SIZE);
+        if (pullBatchSize != null) {
+            consumer.setPullBatchSize(pullBatchSize);
+        }
+        logger.info("消费者配置：分组：{}，消费线程数：{}，最大重试次数：{}，消费超时：{}分钟，批量消费：{}，批量拉取：{}",
+                group, consumer.getConsumeThreadMax(), consumer.getMaxReconsumeTimes(),
+                consumer.getConsumeTimeout(), consumer.getConsumeMessageBatchMaxSize(), consumer.getPullBatchSize());
+    }
+
+    /**
+     * 取得同一分组各订阅的整型属性，均未配置时返回null；各订阅的值（含未配置）不一致时记录冲突并抛出异常，
+     * 避免一个订阅的配置作用到同组的其他订阅上。
+     *
+     * @param group
+     * @param entities
+     * @param key
+     * @return
+     */
+    private Integer getGroupIntProperty(String group, List<SubscriptionEntity> entities, String key) {
+        Map<String, Integer> valueMap = new LinkedHashMap<>();
+        for (SubscriptionEntity entity : entities) {
+            valueMap.put(entity.getTopic(), getIntProperty(entity.getProperties(), entity.getSubscription(), key));
+        }
+        if (new HashSet<>(valueMap.values()).size() > 1) {
+            logger.error("同一分组的订阅配置冲突：分组：{}，属性：{}，各主题的配置：{}", group, key, valueMap);
+            throw new RuntimeException("同一分组的订阅配置冲突，请统一配置或使用不同的分组：" + group + "，属性：" + key
+                    + "，各主题的配置：" + valueMap);
+        }
+        return valueMap.values().iterator().next();
+    }
+
+    /**
+     * 取得整型属性，订阅级（主题.属性名）优先于ConsumerBean级，均未配置时返回null。
+     *
+     * @param properties
+     * @param subscription
+     * @param key
+     * @return
+     */
+    static Integer getIntProperty(Properties properties, Subscription subscription, String key) {
+        String value = properties.getProperty(subscription.getTopic() + "." + key);
+        if (value == null) {
+            value = properties.getProperty(key);
+        }
+        return value == null ? null : Integer.valueOf(value.trim());
     }
 
     public static void main(String[] args) throws InterruptedException, MQClientException {
@@ -0,0 +1,214 @@
+package com.hsjry.plutus.sdk.mq;
+
+import com.hsjry.plutus.sdk.component.EnvComponent;
+import com.hsjry.plutus.sdk.component.MqMetrics;
+import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.client.impl.consumer.ProcessQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 消费者自适应流控。
+ * 定时统计各消费分组的消费耗时和本地缓存的消息（条数、字节数），动态调整拉取：
+ * 单条消费耗时p99超过阈值时，按消费速度降低单队列缓存条数并拉长拉取间隔，恢复后还原为默认值；
+ * 单队列缓存字节数按进程上限在所有队列间均分，缓存总字节数达到上限时暂停所有消费者拉取，降到80%以下时恢复。
+ *
+ * @author qyf
+ * @Date 2019/8/28
+ */
+@Component
+public class ConsumerFlowControl {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /** rocketMq默认的单队列缓存条数 */
+    private static final int DEFAULT_THRESHOLD_FOR_QUEUE = 1000;
+
+    /** rocketMq默认的单队列缓存大小（MB） */
+    private static final int DEFAULT_THRESHOLD_SIZE_FOR_QUEUE = 100;
+
+    /** 降低后的单队列缓存条数下限 */
+    private static final int MIN_THRESHOLD_FOR_QUEUE = 16;
+
+    @Autowired
+    private EnvComponent envComponent;
+
+    @Autowired
+    private MqMetrics mqMetrics;
+
+    /**
+     * 分组 -> 消费者及其统计
+     */
+    private final Map<String, GroupFlow> groupMap = new ConcurrentHashMap<>();
+
+    /** 流控调整线程 */
+    private ScheduledExecutorService scheduler;
+
+    /** 是否因缓存达到进程上限暂停了拉取 */
+    private volatile boolean suspended;
+
+    /** 进程缓存的消息字节数 */
+    private volatile long cachedBytes;
+
+    /** 暂停拉取的次数 */
+    private LongAdder suspends;
+
+    @PostConstruct
+    public void init() {
+        if (envComponent.isProductEnv() || !envComponent.isConsumerFlowEnabled()) {
+            return;
+        }
+        this.suspends = mqMetrics.counter("flow.suspends");
+        mqMetrics.gauge("flow.cachedBytes", () -> cachedBytes);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("plutus-mq-flow-"));
+        long intervalMs = envComponent.getConsumerFlowIntervalMs();
+        this.scheduler.scheduleWithFixedDelay(this::adjust, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 登记消费者，返回该分组的消费统计（由消费监听桥接记录）。
+     *
+     * @param group
+     * @param consumer
+     * @return
+     */
+    public FlowStats register(String group, DefaultMQPushConsumer consumer) {
+        GroupFlow groupFlow = new GroupFlow(consumer);
+        if (scheduler != null) {
+            groupMap.put(group, groupFlow);
+            String prefix = "flow." + group + ".";
+            mqMetrics.gauge(prefix + "cachedCount", () -> groupFlow.cachedCount);
+            mqMetrics.gauge(prefix + "cachedBytes", () -> groupFlow.cachedBytes);
+            mqMetrics.gauge(prefix + "pullThresholdForQueue", () -> (long) consumer.getPullThresholdForQueue());
+            mqMetrics.gauge(prefix + "pullIntervalMs", consumer::getPullInterval);
+        }
+        return groupFlow.stats;
+    }
+
+    /**
+     * 按消费耗时和缓存情况调整各消费者的拉取。
+     */
+    private void adjust() {
+        try {
+            long totalBytes = 0;
+            int totalQueues = 0;
+            for (GroupFlow groupFlow : groupMap.values()) {
+                groupFlow.sample();
+                totalBytes += groupFlow.cachedBytes;
+                totalQueues += groupFlow.queues;
+            }
+            this.cachedBytes = totalBytes;
+
+            // 单队列缓存大小按进程上限均分，所有队列缓存满时也不超过上限
+            int sizeForQueue = (int) Math.max(1, Math.min(DEFAULT_THRESHOLD_SIZE_FOR_QUEUE,
+                    envComponent.getConsumerFlowMaxCachedMb() / Math.max(totalQueues, 1)));
+            long intervalMs = envComponent.getConsumerFlowIntervalMs();
+            for (GroupFlow groupFlow : groupMap.values()) {
+                groupFlow.adjust(sizeForQueue, intervalMs);
+            }
+
+            long maxBytes = envComponent.getConsumerFlowMaxCachedMb() * 1024 * 1024;
+            if (!suspended && totalBytes >= maxBytes) {
+                logger.warn("本地缓存的消息达到上限：{}字节，暂停所有消费者拉取。", totalBytes);
+                suspended = true;
+                suspends.increment();
+                groupMap.values().forEach(groupFlow -> groupFlow.consumer.suspend());
+            } else if (suspended && totalBytes < maxBytes * 8 / 10) {
+                logger.info("本地缓存的消息降至：{}字节，恢复所有消费者拉取。", totalBytes);
+                suspended = false;
+                groupMap.values().forEach(groupFlow -> groupFlow.consumer.resume());
+            }
+        } catch (Throwable e) {
+            logger.error("消费者流控调整异常，e:{}", e);
+        }
+    }
+
+    /**
+     * 一个消费分组的流控状态。
+     */
+    private class GroupFlow {
+
+        private final DefaultMQPushConsumer consumer;
+
+        private final FlowStats stats = new FlowStats();
+
+        /** 分配到的队列数 */
+        private volatile int queues;
+
+        /** 缓存的消息条数 */
+        private volatile long cachedCount;
+
+        /** 缓存的消息字节数 */
+        private volatile long cachedBytes;
+
+        private GroupFlow(DefaultMQPushConsumer consumer) {
+            this.consumer = consumer;
+        }
+
+        /**
+         * 统计该消费者各队列缓存的消息。
+         */
+        private void sample() {
+            int queueCount = 0;
+            long count = 0;
+            long bytes = 0;
+            for (ProcessQueue processQueue : consumer.getDefaultMQPushConsumerImpl().getRebalanceImpl()
+                    .getProcessQueueTable().values()) {
+                if (processQueue.isDropped()) {
+                    continue;
+                }
+                queueCount++;
+                count += processQueue.getMsgCount().get();
+                bytes += processQueue.getMsgSize().get();
+            }
+            this.queues = queueCount;
+            this.cachedCount = count;
+            this.cachedBytes = bytes;
+        }
+
+        /**
+         * 调整拉取参数，rocketMq每次拉取时读取，无需重启消费者。
+         */
+        private void adjust(int sizeForQueue, long intervalMs) {
+            long consumedPerSecond = stats.drainConsumed() * 1000 / Math.max(intervalMs, 1);
+            // 只看本窗口的耗时，消费恢复后下一个窗口即还原拉取参数；样本不足时（如很慢的消费）维持上次的调整
+            long p99 = stats.drainP99();
+            int thresholdForQueue = DEFAULT_THRESHOLD_FOR_QUEUE;
+            long pullInterval = 0;
+            if (p99 < 0) {
+                thresholdForQueue = consumer.getPullThresholdForQueue();
+                pullInterval = consumer.getPullInterval();
+            } else if (p99 > envComponent.getConsumerFlowSlowMs()) {
+                // 消费变慢：缓存的消息以当前速度在积压时长内可消费完，拉取间隔随耗时拉长
+                long backlog = consumedPerSecond * envComponent.getConsumerFlowBacklogSeconds() / Math.max(queues, 1);
+                thresholdForQueue = (int) Math.max(MIN_THRESHOLD_FOR_QUEUE, Math.min(DEFAULT_THRESHOLD_FOR_QUEUE, backlog));
+                pullInterval = Math.min(p99, envComponent.getConsumerFlowMaxPullIntervalMs());
+            }
+            if (thresholdForQueue != consumer.getPullThresholdForQueue() || pullInterval != consumer.getPullInterval()) {
+                logger.info("调整消费者拉取：分组：{}，消费耗时p99：{}ms，每秒消费：{}，单队列缓存条数：{}，拉取间隔：{}ms",
+                        consumer.getConsumerGroup(), p99, consumedPerSecond, thresholdForQueue, pullInterval);
+            }
+            consumer.setPullThresholdForQueue(thresholdForQueue);
+            consumer.setPullThresholdSizeForQueue(sizeForQueue);
+            consumer.setPullInterval(pullInterval);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+}
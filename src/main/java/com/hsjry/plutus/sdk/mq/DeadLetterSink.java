@@ -0,0 +1,21 @@
+package com.hsjry.plutus.sdk.mq;
+
+import org.apache.rocketmq.common.message.MessageExt;
+
+/**
+ * 本地死信：重试次数用尽仍消费失败的消息。
+ * 配置mq.dlq.dir时默认写入本地文件，应用也可以定义该接口的bean替换；均未配置时仍由broker转入死信队列。
+ *
+ * @author qyf
+ * @Date 2019/8/30
+ */
+public interface DeadLetterSink {
+
+    /**
+     * 接收死信消息。
+     *
+     * @param group 消费分组
+     * @param msg
+     */
+    void accept(String group, MessageExt msg);
+}
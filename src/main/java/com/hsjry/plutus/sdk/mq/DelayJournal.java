@@ -0,0 +1,311 @@
+package com.hsjry.plutus.sdk.mq;
+
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageAccessor;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * 本地延时消息日志，保证进程重启后未到期的延时消息不丢失。
+ * 按段追加写入：持有消息时写入调度记录，发送后写入完成记录；每段记录未完成的消息数，
+ * 最早的段全部完成后删除。记录格式为：长度、CRC、内容，重放时遇到不完整的记录即停止（进程崩溃时写了一半）。
+ *
+ * @author qyf
+ * @Date 2019/8/22
+ */
+class DelayJournal {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /** 记录类型：调度 */
+    private static final byte TYPE_SCHEDULE = 1;
+
+    /** 记录类型：完成 */
+    private static final byte TYPE_DONE = 2;
+
+    /** 记录头：长度、CRC */
+    private static final int HEADER_SIZE = 4 + 4;
+
+    /** 段文件名后缀 */
+    private static final String SUFFIX = ".journal";
+
+    /** 日志目录 */
+    private final File dir;
+
+    /** 单段最大字节数，超过后新建一段 */
+    private final long segmentBytes;
+
+    /** 每条记录写入后是否刷盘 */
+    private final boolean sync;
+
+    /** 所有段，按序号排列，最后一段为当前写入段 */
+    private final Deque<Segment> segments = new ArrayDeque<>();
+
+    /** 下一个消息id */
+    private long nextId = 1;
+
+    DelayJournal(File dir, long segmentBytes, boolean sync) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.sync = sync;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new RuntimeException("无法创建延时消息日志目录：" + dir);
+        }
+    }
+
+    /**
+     * 重放已有的日志段，返回未完成的延时消息（消息体均溢出在日志中）。
+     *
+     * @return
+     * @throws IOException
+     */
+    synchronized List<DelayedMessage> replay() throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            files = new File[0];
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(sequence(a), sequence(b)));
+
+        Map<Long, DelayedMessage> scheduled = new LinkedHashMap<>();
+        Set<Long> done = new HashSet<>();
+        for (File file : files) {
+            Segment segment = new Segment(file, sequence(file));
+            segments.addLast(segment);
+            this.replaySegment(segment, scheduled, done);
+        }
+
+        List<DelayedMessage> pending = new ArrayList<>();
+        for (DelayedMessage delayedMessage : scheduled.values()) {
+            if (!done.contains(delayedMessage.id)) {
+                delayedMessage.segment.live++;
+                pending.add(delayedMessage);
+            }
+        }
+        this.removeCompletedSegments();
+        if (segments.isEmpty()) {
+            this.roll();
+        }
+        logger.info("延时消息日志重放完成，目录：{}，段数：{}，未发送：{}", dir, segments.size(), pending.size());
+        return pending;
+    }
+
+    /**
+     * 写入调度记录。
+     *
+     * @param delayedMessage
+     * @param spill 是否溢出消息体（消息体只保留在日志中）
+     * @throws IOException
+     */
+    synchronized void append(DelayedMessage delayedMessage, boolean spill) throws IOException {
+        Message message = delayedMessage.message;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 + message.getBody().length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TYPE_SCHEDULE);
+        out.writeLong(delayedMessage.id);
+        out.writeLong(delayedMessage.deadline);
+        out.writeUTF(delayedMessage.pid);
+        out.writeUTF(message.getTopic());
+        out.writeInt(message.getFlag());
+        out.writeUTF(MessageDecoder.messageProperties2String(message.getProperties()));
+        int bodyOffset = bytes.size() + 4;
+        out.writeInt(message.getBody().length);
+        out.write(message.getBody());
+
+        Segment segment = segments.getLast();
+        long position = this.write(segment, bytes.toByteArray());
+        delayedMessage.segment = segment;
+        segment.live++;
+        if (spill) {
+            delayedMessage.bodyPosition = position + HEADER_SIZE + bodyOffset;
+            delayedMessage.bodyLength = message.getBody().length;
+            message.setBody(null);
+        }
+        if (segment.channel.size() >= segmentBytes) {
+            this.roll();
+        }
+    }
+
+    /**
+     * 写入完成记录，最早的段全部完成后删除。
+     *
+     * @param delayedMessage
+     * @throws IOException
+     */
+    synchronized void done(DelayedMessage delayedMessage) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(1 + 8);
+        record.put(TYPE_DONE).putLong(delayedMessage.id);
+        this.write(segments.getLast(), record.array());
+        delayedMessage.segment.live--;
+        this.removeCompletedSegments();
+    }
+
+    /**
+     * 读回溢出的消息体。
+     *
+     * @param delayedMessage
+     * @return
+     * @throws IOException
+     */
+    byte[] readBody(DelayedMessage delayedMessage) throws IOException {
+        ByteBuffer body = ByteBuffer.allocate(delayedMessage.bodyLength);
+        FileChannel channel = delayedMessage.segment.channel;
+        while (body.hasRemaining()) {
+            if (channel.read(body, delayedMessage.bodyPosition + body.position()) < 0) {
+                throw new EOFException("延时消息日志不完整：" + delayedMessage.segment.file);
+            }
+        }
+        return body.array();
+    }
+
+    synchronized long nextId() {
+        return nextId++;
+    }
+
+    synchronized void close() {
+        for (Segment segment : segments) {
+            try {
+                segment.channel.close();
+            } catch (IOException e) {
+                logger.error("关闭延时消息日志失败：{}，e:{}", segment.file, e);
+            }
+        }
+    }
+
+    private long write(Segment segment, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        record.flip();
+        long position = segment.channel.size();
+        while (record.hasRemaining()) {
+            segment.channel.write(record, position + record.position());
+        }
+        if (sync) {
+            segment.channel.force(false);
+        }
+        return position;
+    }
+
+    private void replaySegment(Segment segment, Map<Long, DelayedMessage> scheduled, Set<Long> done) throws IOException {
+        FileChannel channel = segment.channel;
+        long position = 0;
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (position + HEADER_SIZE <= size) {
+            header.clear();
+            channel.read(header, position);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length <= 0 || position + HEADER_SIZE + length > size) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            channel.read(ByteBuffer.wrap(payload), position + HEADER_SIZE);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            this.replayRecord(segment, position, payload, scheduled, done);
+            position += HEADER_SIZE + length;
+        }
+        if (position < size) {
+            // 截掉崩溃时写了一半的记录
+            logger.warn("延时消息日志尾部不完整，已截断：{}，位置：{}", segment.file, position);
+            channel.truncate(position);
+        }
+    }
+
+    private void replayRecord(Segment segment, long position, byte[] payload, Map<Long, DelayedMessage> scheduled,
+                              Set<Long> done) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        long id = in.readLong();
+        nextId = Math.max(nextId, id + 1);
+        if (type == TYPE_DONE) {
+            done.add(id);
+            return;
+        }
+        long deadline = in.readLong();
+        String pid = in.readUTF();
+        Message message = new Message();
+        message.setTopic(in.readUTF());
+        message.setFlag(in.readInt());
+        MessageAccessor.setProperties(message, MessageDecoder.string2messageProperties(in.readUTF()));
+        int bodyLength = in.readInt();
+        int bodyOffset = payload.length - bodyLength;
+
+        DelayedMessage delayedMessage = new DelayedMessage(id, pid, deadline, message, null);
+        delayedMessage.segment = segment;
+        delayedMessage.bodyPosition = position + HEADER_SIZE + bodyOffset;
+        delayedMessage.bodyLength = bodyLength;
+        scheduled.put(id, delayedMessage);
+    }
+
+    /**
+     * 新建写入段。
+     */
+    private void roll() throws IOException {
+        long sequence = segments.isEmpty() ? 0 : segments.getLast().sequence + 1;
+        segments.addLast(new Segment(new File(dir, String.format("%020d", sequence) + SUFFIX), sequence));
+    }
+
+    /**
+     * 从最早的段开始删除已全部完成的段（当前写入段除外），保证完成记录总在调度记录之后被删除。
+     */
+    private void removeCompletedSegments() throws IOException {
+        while (segments.size() > 1 && segments.getFirst().live == 0) {
+            Segment segment = segments.removeFirst();
+            segment.channel.close();
+            if (!segment.file.delete()) {
+                logger.warn("删除延时消息日志段失败：{}", segment.file);
+            }
+        }
+    }
+
+    private static long sequence(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * 日志段。
+     */
+    static final class Segment {
+        private final File file;
+        private final long sequence;
+        private final FileChannel channel;
+
+        /** 未完成的消息数，只在持有日志锁时修改 */
+        private int live;
+
+        Segment(File file, long sequence) throws IOException {
+            this.file = file;
+            this.sequence = sequence;
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.hsjry.plutus.sdk.mq;
+
+import com.hsjry.plutus.sdk.component.EnvComponent;
+import com.hsjry.plutus.sdk.component.MqMetrics;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageClientIDSetter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 线下延时消息调度。
+ * 线上按startDeliverTime精确投递，线下rocketMq只支持固定的延时级别：
+ * nearest方式取最接近的延时级别；exact方式取不超过延时的最大级别，差额在本地持有到期后再发送，超过最大级别的部分同样在本地持有。
+ * 本地持有的消息放在哈希时间轮中，每个刻度到期的消息按生产者和主题成批发送，发送失败的按退避时间重新持有，发送成功后才写完成记录；
+ * 配置日志目录后持有的消息写入日志，重启后恢复。
+ * 发送时在用户属性中记录期望投递时间，消费端据此统计提前和延后投递的情况。
+ *
+ * @author qyf
+ * @Date 2019/8/21
+ */
+@Component
+public class DelayScheduler {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * 记录期望投递时间（毫秒时间戳）的用户属性
+     */
+    public static final String PROPERTY_DELIVER_TIME = "PLUTUS_DELIVER_TIME";
+
+    /** 延时方式：exact */
+    private static final String MODE_EXACT = "exact";
+
+    @Autowired
+    private EnvComponent envComponent;
+
+    @Autowired
+    private MqMetrics mqMetrics;
+
+    @Autowired
+    private Producer producer;
+
+    @Autowired
+    private BatchSender batchSender;
+
+    /**
+     * 各延时级别的毫秒数，下标0对应级别1
+     */
+    private long[] levelMillis;
+
+    /** 是否精确延时 */
+    private boolean exact;
+
+    /** 本地持有的消息 */
+    private HashedTimingWheel<DelayedMessage> wheel;
+
+    /** 到期消息的发送线程，不占用时间轮线程 */
+    private ExecutorService sendExecutor;
+
+    /** 延时消息日志，未开启时为null */
+    private DelayJournal journal;
+
+    /** 重发次数用尽仍失败的条数 */
+    private LongAdder failed;
+
+    /** 发送失败后重新持有的次数 */
+    private LongAdder retried;
+
+    @PostConstruct
+    public void init() {
+        this.levelMillis = parseLevels(envComponent.getDelayLevels());
+        this.exact = MODE_EXACT.equalsIgnoreCase(envComponent.getDelayMode());
+        if (envComponent.isProductEnv()) {
+            return;
+        }
+
+        this.wheel = new HashedTimingWheel<>(envComponent.getDelayWheelTickMs(), envComponent.getDelayWheelSize(),
+                new CustomizableThreadFactory("plutus-mq-delay-"), this::fire);
+        this.sendExecutor = new ThreadPoolExecutor(envComponent.getDelaySendThreads(), envComponent.getDelaySendThreads(),
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(envComponent.getDelaySendQueueSize()),
+                new CustomizableThreadFactory("plutus-mq-delay-send-"));
+        this.failed = mqMetrics.counter("delay.failed");
+        this.retried = mqMetrics.counter("delay.retried");
+        mqMetrics.gauge("delay.held", () -> (long) wheel.size());
+
+        if (StringUtils.hasText(envComponent.getDelayJournalDir())) {
+            try {
+                this.journal = new DelayJournal(new File(envComponent.getDelayJournalDir()),
+                        envComponent.getDelayJournalSegmentBytes(), envComponent.isDelayJournalSync());
+                // 恢复重启前未发送的延时消息，已过期的在第一个刻度发送
+                journal.replay().forEach(delayedMessage -> wheel.schedule(delayedMessage, delayedMessage.deadline));
+            } catch (IOException e) {
+                throw new RuntimeException("延时消息日志恢复失败：" + envComponent.getDelayJournalDir(), e);
+            }
+        }
+        wheel.start();
+    }
+
+    /**
+     * 设置消息的延时级别和期望投递时间。
+     *
+     * @param rocketMsg
+     * @param delayMillis 延时毫秒数
+     * @return 需要在本地持有的毫秒数，0表示直接发送
+     */
+    public long apply(Message rocketMsg, long delayMillis) {
+        if (delayMillis <= 0) {
+            return 0;
+        }
+        rocketMsg.putUserProperty(PROPERTY_DELIVER_TIME, String.valueOf(System.currentTimeMillis() + delayMillis));
+        if (!exact) {
+            rocketMsg.setDelayTimeLevel(this.nearestLevel(delayMillis));
+            return 0;
+        }
+        int level = this.floorLevel(delayMillis);
+        if (level > 0) {
+            rocketMsg.setDelayTimeLevel(level);
+        }
+        return delayMillis - (level == 0 ? 0 : levelMillis[level - 1]);
+    }
+
+    /**
+     * 取最接近延时的级别，超过最大级别时取最大级别。
+     *
+     * @param delayMillis
+     * @return
+     */
+    public int nearestLevel(long delayMillis) {
+        if (delayMillis <= 0) {
+            return 0;
+        }
+        int level = this.floorLevel(delayMillis);
+        if (level == levelMillis.length) {
+            return level;
+        }
+        // 比较下一级别是否更接近
+        long lower = level == 0 ? 0 : levelMillis[level - 1];
+        return levelMillis[level] - delayMillis < delayMillis - lower ? level + 1 : Math.max(level, 1);
+    }
+
+    /**
+     * 本地持有到期后发送。
+     * 开启日志时先写日志再持有，持有的消息超过上限后消息体只保留在日志中。
+     *
+     * @param mqEntity
+     * @param rocketMsg
+     * @param holdMillis
+     * @return 发送结果
+     */
+    public CompletableFuture<SendResult> hold(MqEntity mqEntity, Message rocketMsg, long holdMillis) {
+        CompletableFuture<SendResult> future = new CompletableFuture<>();
+        // 持有和写日志前生成消息id，重发和重启后恢复的消息都用同一个id，消费端可按id去重
+        MessageClientIDSetter.setUniqID(rocketMsg);
+        DelayedMessage delayedMessage = new DelayedMessage(journal == null ? 0 : journal.nextId(), mqEntity.getPid(),
+                System.currentTimeMillis() + holdMillis, rocketMsg, future);
+        if (journal != null) {
+            try {
+                journal.append(delayedMessage, wheel.size() >= envComponent.getDelayWheelMaxInMemory());
+            } catch (IOException e) {
+                throw new RuntimeException("延时消息写入日志失败", e);
+            }
+        }
+        wheel.schedule(delayedMessage, delayedMessage.deadline);
+        return future;
+    }
+
+    /**
+     * 时间轮到期处理，按生产者和主题分组后交给发送线程，不同主题并行发送。
+     */
+    private void fire(List<DelayedMessage> expired) {
+        // 同一生产者id的bean可能对应不同主题，按生产者id和主题分组
+        Map<List<String>, List<DelayedMessage>> routeMap = new LinkedHashMap<>();
+        expired.forEach(delayedMessage -> routeMap.computeIfAbsent(
+                Arrays.asList(delayedMessage.pid, delayedMessage.message.getTopic()), route -> new ArrayList<>())
+                .add(delayedMessage));
+        routeMap.forEach((route, delayedMessages) -> {
+            try {
+                sendExecutor.execute(() -> this.send(route.get(0), route.get(1), delayedMessages));
+            } catch (RejectedExecutionException e) {
+                // 发送线程积压，时间轮线程不能阻塞，放回时间轮下一刻度再发
+                long deadline = System.currentTimeMillis() + envComponent.getDelayWheelTickMs();
+                delayedMessages.forEach(delayedMessage -> wheel.schedule(delayedMessage, deadline));
+            }
+        });
+    }
+
+    /**
+     * 成批发送同一生产者和主题的到期消息。
+     */
+    private void send(String pid, String topic, List<DelayedMessage> delayedMessages) {
+        MqEntity mqEntity = producer.getMqProductorInfo(pid, topic);
+        if (mqEntity == null) {
+            RuntimeException e = new RuntimeException("没有找到消息生产者：" + pid + "，主题：" + topic);
+            delayedMessages.forEach(delayedMessage -> this.fail(delayedMessage, e));
+            return;
+        }
+        producer.ensureStarted(mqEntity);
+
+        List<DelayedMessage> loaded = new ArrayList<>(delayedMessages.size());
+        List<Message> messages = new ArrayList<>(delayedMessages.size());
+        for (DelayedMessage delayedMessage : delayedMessages) {
+            try {
+                if (delayedMessage.message.getBody() == null) {
+                    delayedMessage.message.setBody(journal.readBody(delayedMessage));
+                }
+                loaded.add(delayedMessage);
+                messages.add(delayedMessage.message);
+            } catch (IOException e) {
+                this.fail(delayedMessage, e);
+            }
+        }
+        List<CompletableFuture<SendResult>> results = batchSender.send(mqEntity, messages);
+        for (int i = 0; i < loaded.size(); i++) {
+            DelayedMessage delayedMessage = loaded.get(i);
+            results.get(i).whenComplete((sendResult, e) -> {
+                if (e != null) {
+                    this.fail(delayedMessage, e);
+                } else {
+                    this.complete(delayedMessage, sendResult);
+                }
+            });
+        }
+    }
+
+    /**
+     * 发送成功，回填发送结果并写入完成记录。
+     */
+    private void complete(DelayedMessage delayedMessage, SendResult sendResult) {
+        if (journal != null) {
+            try {
+                journal.done(delayedMessage);
+            } catch (IOException ex) {
+                logger.error("延时消息写入完成记录失败，id:{}，e:{}", delayedMessage.id, ex);
+            }
+        }
+        if (delayedMessage.future != null) {
+            delayedMessage.future.complete(sendResult);
+        }
+    }
+
+    /**
+     * 发送失败，按退避时间重新持有；次数用尽后回填异常，不写完成记录，开启日志时重启后恢复。
+     */
+    private void fail(DelayedMessage delayedMessage, Throwable e) {
+        int attempts = ++delayedMessage.attempts;
+        if (attempts < envComponent.getDelayRetryMaxAttempts() && wheel.isRunning()) {
+            retried.increment();
+            long backoff = Math.min(envComponent.getDelayRetryBackoffMs() << Math.min(attempts - 1, 20),
+                    envComponent.getDelayRetryMaxBackoffMs());
+            logger.warn("延时消息发送失败，{}毫秒后第{}次重发，topic:{}, keys:{}, e:{}", backoff, attempts + 1,
+                    delayedMessage.message.getTopic(), delayedMessage.message.getKeys(), e.toString());
+            if (delayedMessage.bodyPosition >= 0) {
+                // 溢出到磁盘的消息体不在内存中等待重发
+                delayedMessage.message.setBody(null);
+            }
+            wheel.schedule(delayedMessage, System.currentTimeMillis() + backoff);
+            return;
+        }
+        failed.increment();
+        logger.error(journal == null ? "延时消息发送{}次仍失败，已丢弃，topic:{}, keys:{}, e:{}"
+                        : "延时消息发送{}次仍失败，保留在日志中待重启后恢复，topic:{}, keys:{}, e:{}",
+                attempts, delayedMessage.message.getTopic(), delayedMessage.message.getKeys(), e);
+        if (delayedMessage.future != null) {
+            delayedMessage.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * 不超过延时的最大级别，延时小于最小级别时为0。
+     */
+    private int floorLevel(long delayMillis) {
+        int level = 0;
+        while (level < levelMillis.length && levelMillis[level] <= delayMillis) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * 解析延时级别，如：1s 5s 10s 30s 1m 2m ... 1h 2h。
+     */
+    static long[] parseLevels(String levels) {
+        String[] items = levels.trim().split("\\s+");
+        long[] millis = new long[items.length];
+        for (int i = 0; i < items.length; i++) {
+            String item = items[i];
+            long value = Long.parseLong(item.substring(0, item.length() - 1));
+            switch (item.charAt(item.length() - 1)) {
+                case 's':
+                    millis[i] = TimeUnit.SECONDS.toMillis(value);
+                    break;
+                case 'm':
+                    millis[i] = TimeUnit.MINUTES.toMillis(value);
+                    break;
+                case 'h':
+                    millis[i] = TimeUnit.HOURS.toMillis(value);
+                    break;
+                case 'd':
+                    millis[i] = TimeUnit.DAYS.toMillis(value);
+                    break;
+                default:
+                    throw new RuntimeException("不支持的延时级别：" + item);
+            }
+        }
+        return millis;
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        if (wheel == null) {
+            return;
+        }
+        List<DelayedMessage> held = wheel.stop();
+        if (!held.isEmpty()) {
+            logger.warn(journal == null ? "退出时仍有{}条本地持有的延时消息未发送，已丢弃"
+                    : "退出时仍有{}条本地持有的延时消息未发送，重启后从日志恢复", held.size());
+        }
+        sendExecutor.shutdown();
+        sendExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        if (journal != null) {
+            journal.close();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.hsjry.plutus.sdk.mq;
+
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.common.message.Message;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 本地持有的延时消息。
+ * 开启日志后消息体可以只保留在日志文件中（溢出到磁盘），发送前再读回。
+ *
+ * @author qyf
+ * @Date 2019/8/22
+ */
+class DelayedMessage {
+
+    /** 日志中的消息id */
+    final long id;
+
+    /** 生产者id */
+    final String pid;
+
+    /** 到期时间（毫秒时间戳） */
+    final long deadline;
+
+    /** 消息，消息体溢出到磁盘时body为null */
+    final Message message;
+
+    /** 发送结果，重启后恢复的消息为null */
+    final CompletableFuture<SendResult> future;
+
+    /** 所在日志段 */
+    DelayJournal.Segment segment;
+
+    /** 消息体在日志段中的位置，未溢出时为-1 */
+    long bodyPosition = -1;
+
+    /** 消息体长度 */
+    int bodyLength;
+
+    /** 已发送的次数 */
+    int attempts;
+
+    DelayedMessage(long id, String pid, long deadline, Message message, CompletableFuture<SendResult> future) {
+        this.id = id;
+        this.pid = pid;
+        this.deadline = deadline;
+        this.message = message;
+        this.future = future;
+    }
+}
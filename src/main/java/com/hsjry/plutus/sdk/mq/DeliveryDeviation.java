@@ -0,0 +1,55 @@
+package com.hsjry.plutus.sdk.mq;
+
+import com.hsjry.plutus.sdk.component.MqMetrics;
+import org.apache.rocketmq.common.message.MessageExt;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 延时消息投递偏差统计：按发送时记录的期望投递时间，统计每个订阅提前和延后投递的条数及毫秒数。
+ *
+ * @author qyf
+ * @Date 2019/8/21
+ */
+public class DeliveryDeviation {
+
+    /** 提前投递的条数 */
+    private final LongAdder early;
+
+    /** 提前投递的毫秒数合计 */
+    private final LongAdder earlyMillis;
+
+    /** 延后投递的条数 */
+    private final LongAdder late;
+
+    /** 延后投递的毫秒数合计 */
+    private final LongAdder lateMillis;
+
+    public DeliveryDeviation(String topic, MqMetrics metrics) {
+        String prefix = "delay." + topic + ".";
+        this.early = metrics.counter(prefix + "early");
+        this.earlyMillis = metrics.counter(prefix + "earlyMillis");
+        this.late = metrics.counter(prefix + "late");
+        this.lateMillis = metrics.counter(prefix + "lateMillis");
+    }
+
+    /**
+     * 记录一条消息的投递偏差，非延时消息和重试消息不统计。
+     *
+     * @param msg
+     */
+    public void record(MessageExt msg) {
+        String deliverTime = msg.getUserProperty(DelayScheduler.PROPERTY_DELIVER_TIME);
+        if (deliverTime == null || msg.getReconsumeTimes() > 0) {
+            return;
+        }
+        long deviation = System.currentTimeMillis() - Long.parseLong(deliverTime);
+        if (deviation < 0) {
+            early.increment();
+            earlyMillis.add(-deviation);
+        } else {
+            late.increment();
+            lateMillis.add(deviation);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.hsjry.plutus.sdk.mq;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.rocketmq.common.message.MessageExt;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 写本地文件的死信，每个主题一个文件（主题.dlq），每行一条JSON（消息体为base64）。
+ *
+ * @author qyf
+ * @Date 2019/8/30
+ */
+public class FileDeadLetterSink implements DeadLetterSink {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final File dir;
+
+    public FileDeadLetterSink(File dir) {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new RuntimeException("创建死信目录失败：" + dir);
+        }
+        this.dir = dir;
+    }
+
+    @Override
+    public synchronized void accept(String group, MessageExt msg) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("group", group);
+        record.put("topic", msg.getTopic());
+        record.put("msgId", msg.getMsgId());
+        record.put("keys", msg.getKeys());
+        record.put("tags", msg.getTags());
+        record.put("reconsumeTimes", msg.getReconsumeTimes());
+        record.put("bornTimestamp", msg.getBornTimestamp());
+        record.put("deadTimestamp", System.currentTimeMillis());
+        record.put("properties", msg.getProperties());
+        record.put("body", msg.getBody());
+        try (OutputStream out = new FileOutputStream(new File(dir, msg.getTopic() + ".dlq"), true)) {
+            out.write(OBJECT_MAPPER.writeValueAsBytes(record));
+            out.write('\n');
+        } catch (IOException e) {
+            throw new RuntimeException("写死信文件失败：" + msg.getTopic() + "，msgId:" + msg.getMsgId(), e);
+        }
+    }
+}
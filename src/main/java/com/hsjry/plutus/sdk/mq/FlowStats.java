@@ -0,0 +1,62 @@
+package com.hsjry.plutus.sdk.mq;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 消费分组的消费统计（消费条数、单条消费耗时），供流控按消费速度调整拉取。
+ *
+ * @author qyf
+ * @Date 2019/8/28
+ */
+public class FlowStats {
+
+    /** 一个流控窗口内计算p99的最少样本数 */
+    private static final int MIN_WINDOW_SAMPLES = 5;
+
+    /** 单条消息的消费耗时 */
+    private final LatencyTracker latency = new LatencyTracker();
+
+    /** 上次流控调整以来消费的条数 */
+    private final LongAdder consumed = new LongAdder();
+
+    /**
+     * 记录一次消费。
+     *
+     * @param count     本次消费的条数
+     * @param elapsedMs 本次消费的耗时
+     */
+    public void record(int count, long elapsedMs) {
+        if (count <= 0) {
+            return;
+        }
+        consumed.add(count);
+        latency.record(elapsedMs / count);
+    }
+
+    /**
+     * 取得单条消费耗时的p99。
+     *
+     * @return
+     */
+    public long getP99() {
+        return latency.getP99();
+    }
+
+    /**
+     * 取得单条消费耗时的p99，消费条数不足时为-1，样本累积到下次调用。
+     *
+     * @return
+     */
+    long drainP99() {
+        return latency.drainWindowP99(MIN_WINDOW_SAMPLES);
+    }
+
+    /**
+     * 取得上次调用以来消费的条数并清零。
+     *
+     * @return
+     */
+    long drainConsumed() {
+        return consumed.sumThenReset();
+    }
+}
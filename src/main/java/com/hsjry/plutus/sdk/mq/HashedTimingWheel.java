@@ -0,0 +1,207 @@
+package com.hsjry.plutus.sdk.mq;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 哈希时间轮。
+ * 调度只把任务放入无锁队列，由时间轮线程每个刻度转入对应的槽（O(1)）；
+ * 每个刻度把该槽中到期的任务作为一批交给到期处理，未到期的（超过一圈）只递减剩余圈数。
+ * 每个任务只有一个链表节点的开销。
+ *
+ * @author qyf
+ * @Date 2019/8/22
+ */
+public class HashedTimingWheel<T> {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /** 每个刻度最多转入的新任务数，避免调度过多时拖慢刻度 */
+    private static final int MAX_TRANSFER_PER_TICK = 100000;
+
+    /** 刻度毫秒数 */
+    private final long tickMillis;
+
+    /** 槽数减一（槽数为2的幂） */
+    private final int mask;
+
+    /** 各槽的链表头 */
+    private final Node<T>[] buckets;
+
+    /** 新调度的任务 */
+    private final Queue<Node<T>> pending = new ConcurrentLinkedQueue<>();
+
+    /** 到期处理，在时间轮线程中调用，不能阻塞 */
+    private final Consumer<List<T>> expiryHandler;
+
+    /** 未到期的任务数 */
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final Thread worker;
+
+    private volatile boolean running = true;
+
+    /** 时间轮启动时间 */
+    private long startTime;
+
+    /** 当前刻度 */
+    private long tick;
+
+    @SuppressWarnings("unchecked")
+    public HashedTimingWheel(long tickMillis, int wheelSize, ThreadFactory threadFactory, Consumer<List<T>> expiryHandler) {
+        this.tickMillis = tickMillis;
+        int normalized = Integer.highestOneBit(Math.max(wheelSize, 2) - 1) << 1;
+        this.mask = normalized - 1;
+        this.buckets = (Node<T>[]) new Node<?>[normalized];
+        this.expiryHandler = expiryHandler;
+        this.worker = threadFactory.newThread(this::run);
+    }
+
+    public void start() {
+        this.startTime = System.currentTimeMillis();
+        this.worker.start();
+    }
+
+    /**
+     * 调度任务，到达时间点后交给到期处理。
+     *
+     * @param item
+     * @param deadline 到期时间（毫秒时间戳）
+     */
+    public void schedule(T item, long deadline) {
+        size.incrementAndGet();
+        pending.add(new Node<>(item, deadline));
+    }
+
+    /**
+     * 未到期的任务数。
+     *
+     * @return
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * 时间轮是否在运行，停止后调度的任务不再到期。
+     *
+     * @return
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 停止时间轮。
+     *
+     * @return 未到期的任务
+     */
+    public List<T> stop() {
+        running = false;
+        worker.interrupt();
+        try {
+            worker.join(tickMillis * 10);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<T> unprocessed = new ArrayList<>();
+        for (Node<T> head : buckets) {
+            for (Node<T> node = head; node != null; node = node.next) {
+                unprocessed.add(node.item);
+            }
+        }
+        for (Node<T> node = pending.poll(); node != null; node = pending.poll()) {
+            unprocessed.add(node.item);
+        }
+        return unprocessed;
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = startTime + (tick + 1) * tickMillis;
+            long sleep = deadline - System.currentTimeMillis();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            this.transferPending();
+            List<T> expired = this.expire((int) (tick & mask));
+            tick++;
+            if (!expired.isEmpty()) {
+                size.addAndGet(-expired.size());
+                try {
+                    expiryHandler.accept(expired);
+                } catch (Throwable e) {
+                    logger.error("时间轮到期处理异常，条数：{}，e:{}", expired.size(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 新任务按到期刻度放入对应的槽，已过期的放入当前槽。
+     */
+    private void transferPending() {
+        for (int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+            Node<T> node = pending.poll();
+            if (node == null) {
+                return;
+            }
+            long ticks = Math.max((node.deadline - startTime) / tickMillis, tick);
+            node.rounds = (ticks - tick) / buckets.length;
+            int index = (int) (ticks & mask);
+            node.next = buckets[index];
+            buckets[index] = node;
+        }
+    }
+
+    /**
+     * 取出槽中到期的任务，其余任务剩余圈数减一。
+     */
+    private List<T> expire(int index) {
+        List<T> expired = new ArrayList<>();
+        Node<T> remaining = null;
+        Node<T> node = buckets[index];
+        while (node != null) {
+            Node<T> next = node.next;
+            if (node.rounds <= 0) {
+                expired.add(node.item);
+            } else {
+                node.rounds--;
+                node.next = remaining;
+                remaining = node;
+            }
+            node = next;
+        }
+        buckets[index] = remaining;
+        return expired;
+    }
+
+    /**
+     * 槽中的链表节点。
+     */
+    private static final class Node<T> {
+        private final T item;
+        private final long deadline;
+        private long rounds;
+        private Node<T> next;
+
+        Node(T item, long deadline) {
+            this.item = item;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.hsjry.plutus.sdk.mq;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 最近发送耗时的分位数统计。
+ * 环形数组保存最近的耗时样本，每记录一定条数重新计算一次p99，读取时直接返回缓存值；
+ * 也可以按窗口取p99，只统计上个窗口以来的样本。
+ *
+ * @author qyf
+ * @Date 2019/8/26
+ */
+public class LatencyTracker {
+
+    /** 样本数（2的幂） */
+    private static final int SAMPLES = 1024;
+
+    /** 每记录多少条重新计算一次 */
+    private static final int RECOMPUTE_EVERY = 128;
+
+    private final long[] samples = new long[SAMPLES];
+
+    private final AtomicLong count = new AtomicLong();
+
+    private volatile long p99;
+
+    /** 当前窗口开始时的记录数 */
+    private long windowStart;
+
+    /**
+     * 记录一次耗时。
+     *
+     * @param millis
+     */
+    public void record(long millis) {
+        long index = count.getAndIncrement();
+        samples[(int) (index & (SAMPLES - 1))] = millis;
+        if ((index + 1) % RECOMPUTE_EVERY == 0) {
+            this.recompute(Math.min(index + 1, SAMPLES));
+        }
+    }
+
+    /**
+     * 最近耗时的p99（毫秒），样本不足时为0。
+     *
+     * @return
+     */
+    public long getP99() {
+        return p99;
+    }
+
+    /**
+     * 取得当前窗口（上次开始新窗口以来）记录的耗时的p99并开始新的窗口。
+     * 样本少于minSamples时返回-1且不开始新窗口，样本继续累积到下次调用，很慢的消费也能攒够样本。
+     * 与getP99不同，旧窗口的样本不会影响之后的窗口。
+     *
+     * @param minSamples
+     * @return 样本不足时为-1
+     */
+    public synchronized long drainWindowP99(int minSamples) {
+        long end = count.get();
+        int size = (int) Math.min(end - windowStart, SAMPLES);
+        if (size < Math.max(minSamples, 1)) {
+            return -1;
+        }
+        windowStart = end;
+        long[] window = new long[size];
+        for (int i = 0; i < size; i++) {
+            window[i] = samples[(int) ((end - size + i) & (SAMPLES - 1))];
+        }
+        Arrays.sort(window);
+        return window[size * 99 / 100];
+    }
+
+    private void recompute(long size) {
+        long[] sorted = Arrays.copyOf(samples, (int) size);
+        Arrays.sort(sorted);
+        p99 = sorted[(int) (size * 99 / 100)];
+    }
+}
@@ -0,0 +1,31 @@
+package com.hsjry.plutus.sdk.mq;
+
+import com.aliyun.openservices.ons.api.transaction.LocalTransactionExecuter;
+
+/**
+ * 事务消息发送时传给TransactionListener的参数：本次发送的阿里云sdk本地事务执行器及调用方的参数。
+ *
+ * @author qyf
+ * @Date 2019/9/3
+ */
+public class LocalTransactionArg {
+
+    /** 本地事务执行器 */
+    private final LocalTransactionExecuter executer;
+
+    /** 调用方传给本地事务执行器的参数 */
+    private final Object arg;
+
+    public LocalTransactionArg(LocalTransactionExecuter executer, Object arg) {
+        this.executer = executer;
+        this.arg = arg;
+    }
+
+    public LocalTransactionExecuter getExecuter() {
+        return executer;
+    }
+
+    public Object getArg() {
+        return arg;
+    }
+}
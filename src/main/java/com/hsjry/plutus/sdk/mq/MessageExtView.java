@@ -0,0 +1,196 @@
+package com.hsjry.plutus.sdk.mq;
+
+import com.aliyun.openservices.ons.api.Message;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageExt;
+
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 线下rocketMq消息的阿里云sdk消息视图。
+ * 不在消费时复制属性，各属性在消费监听读取时才从MessageExt取得；设置的属性直接写回MessageExt。
+ * 用户属性不含rocketMq的系统属性和本sdk内部使用的属性（PLUTUS_开头），首次读取全部用户属性时才生成Properties。
+ *
+ * @author qyf
+ * @Date 2019/8/30
+ */
+public class MessageExtView extends Message {
+
+    private static final long serialVersionUID = 1L;
+
+    /** 本sdk内部使用的用户属性前缀 */
+    private static final String INTERNAL_PROPERTY_PREFIX = "PLUTUS_";
+
+    private final MessageExt msg;
+
+    /** 全部用户属性，首次读取时生成 */
+    private Properties userProperties;
+
+    public MessageExtView(MessageExt msg) {
+        this.msg = msg;
+    }
+
+    /**
+     * 取得原始的rocketMq消息。
+     *
+     * @return
+     */
+    public MessageExt getMessageExt() {
+        return msg;
+    }
+
+    @Override
+    public String getTopic() {
+        return msg.getTopic();
+    }
+
+    @Override
+    public void setTopic(String topic) {
+        msg.setTopic(topic);
+    }
+
+    @Override
+    public String getTag() {
+        return msg.getTags();
+    }
+
+    @Override
+    public void setTag(String tag) {
+        msg.setTags(tag);
+    }
+
+    @Override
+    public String getKey() {
+        return msg.getKeys();
+    }
+
+    @Override
+    public void setKey(String key) {
+        msg.setKeys(key);
+    }
+
+    @Override
+    public String getMsgID() {
+        return msg.getMsgId();
+    }
+
+    @Override
+    public void setMsgID(String msgId) {
+        msg.setMsgId(msgId);
+    }
+
+    @Override
+    public byte[] getBody() {
+        return msg.getBody();
+    }
+
+    @Override
+    public void setBody(byte[] body) {
+        msg.setBody(body);
+    }
+
+    @Override
+    public int getReconsumeTimes() {
+        return msg.getReconsumeTimes();
+    }
+
+    @Override
+    public void setReconsumeTimes(int reconsumeTimes) {
+        msg.setReconsumeTimes(reconsumeTimes);
+    }
+
+    @Override
+    public long getBornTimestamp() {
+        return msg.getBornTimestamp();
+    }
+
+    @Override
+    public void setBornTimestamp(long bornTimestamp) {
+        msg.setBornTimestamp(bornTimestamp);
+    }
+
+    @Override
+    public String getBornHost() {
+        return msg.getBornHostString();
+    }
+
+    @Override
+    public void setBornHost(String bornHost) {
+        // 线下消息的发送方地址以broker返回的为准
+    }
+
+    /**
+     * 延时消息的期望投递时间，非延时消息为0。
+     */
+    @Override
+    public long getStartDeliverTime() {
+        String deliverTime = msg.getUserProperty(DelayScheduler.PROPERTY_DELIVER_TIME);
+        return deliverTime == null ? 0 : Long.parseLong(deliverTime);
+    }
+
+    @Override
+    public void setStartDeliverTime(long startDeliverTime) {
+        msg.putUserProperty(DelayScheduler.PROPERTY_DELIVER_TIME, String.valueOf(startDeliverTime));
+    }
+
+    /**
+     * 顺序消息的分区键，非顺序消息为null。
+     */
+    @Override
+    public String getShardingKey() {
+        return msg.getUserProperty(ShardingKeySelector.PROPERTY_SHARDING_KEY);
+    }
+
+    @Override
+    public void setShardingKey(String shardingKey) {
+        msg.putUserProperty(ShardingKeySelector.PROPERTY_SHARDING_KEY, shardingKey);
+    }
+
+    @Override
+    public String getUserProperties(String key) {
+        if (userProperties != null) {
+            return userProperties.getProperty(key);
+        }
+        return isUserProperty(key) ? msg.getUserProperty(key) : null;
+    }
+
+    @Override
+    public void putUserProperties(String key, String value) {
+        msg.putUserProperty(key, value);
+        if (userProperties != null) {
+            userProperties.setProperty(key, value);
+        }
+    }
+
+    @Override
+    public Properties getUserProperties() {
+        if (userProperties == null) {
+            Properties properties = new Properties();
+            for (Map.Entry<String, String> entry : msg.getProperties().entrySet()) {
+                if (isUserProperty(entry.getKey())) {
+                    properties.setProperty(entry.getKey(), entry.getValue());
+                }
+            }
+            userProperties = properties;
+        }
+        return userProperties;
+    }
+
+    @Override
+    public void setUserProperties(Properties userProperties) {
+        this.userProperties = null;
+        userProperties.forEach((key, value) -> this.putUserProperties(key.toString(), value.toString()));
+    }
+
+    private static boolean isUserProperty(String key) {
+        return !MessageConst.STRING_HASH_SET.contains(key) && !key.startsWith(INTERNAL_PROPERTY_PREFIX);
+    }
+
+    @Override
+    public String toString() {
+        return "Message [topic=" + msg.getTopic() + ", msgId=" + msg.getMsgId() + ", tag=" + msg.getTags()
+                + ", key=" + msg.getKeys() + ", reconsumeTimes=" + msg.getReconsumeTimes()
+                + ", bornTimestamp=" + msg.getBornTimestamp() + ", body=" + (msg.getBody() == null ? 0 : msg.getBody().length) + "]";
+    }
+}
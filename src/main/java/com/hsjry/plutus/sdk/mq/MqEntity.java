@@ -2,6 +2,7 @@ package com.hsjry.plutus.sdk.mq;
 
 import com.aliyun.openservices.ons.api.bean.ProducerBean;
 import com.aliyun.openservices.ons.api.bean.TransactionProducerBean;
+import com.hsjry.plutus.sdk.codec.TopicCodec;
 import lombok.Data;
 import org.apache.rocketmq.client.producer.DefaultMQProducer;
 import org.apache.rocketmq.client.producer.TransactionMQProducer;
@@ -17,6 +18,24 @@ public class MqEntity {
     private String pid;
     private String cid;
 
+    /** 消息分组（启动时解析，发送时不再重复计算） */
+    private String group;
+
+    /** 线下rocketMq的主题（环境前缀_主题） */
+    private String rocketTopic;
+
+    /** 该主题的消息体压缩配置 */
+    private TopicCodec topicCodec;
+
+    /** 该主题的发送策略（重试、对冲） */
+    private SendPolicy sendPolicy;
+
+    /** 该生产者的发送限制（限速、自适应并发） */
+    private SendLimiter sendLimiter = SendLimiter.NONE;
+
+    /** 线下生产者是否已启动（启动失败也视为已启动，不再重复启动） */
+    private volatile boolean started;
+
     //普通消息
     /** Producer bean对象 */
     private ProducerBean subProducerBean;
@@ -30,4 +49,7 @@ public class MqEntity {
 
     /** 替换为原生的rocketMq的事务消息生产者 */
     private TransactionMQProducer transactionMQProducer;
+
+    /** 事务消息首次回查前的秒数（CheckImmunityTimeInSeconds），未配置时为null */
+    private String checkImmunityTimeInSeconds;
 }
@@ -0,0 +1,111 @@
+package com.hsjry.plutus.sdk.mq;
+
+import com.aliyun.openservices.ons.api.Message;
+import com.aliyun.openservices.ons.api.PropertyKeyConst;
+import com.aliyun.openservices.ons.api.order.ConsumeOrderContext;
+import com.aliyun.openservices.ons.api.order.MessageOrderListener;
+import com.aliyun.openservices.ons.api.order.OrderAction;
+import com.hsjry.plutus.sdk.codec.CodecStage;
+import com.hsjry.plutus.sdk.component.MqMetrics;
+import com.hsjry.plutus.sdk.dedup.IdempotentFilter;
+import com.hsjry.plutus.sdk.utils.MessageUtils;
+import org.apache.rocketmq.client.consumer.listener.ConsumeOrderlyContext;
+import org.apache.rocketmq.client.consumer.listener.ConsumeOrderlyStatus;
+import org.apache.rocketmq.client.consumer.listener.MessageListenerOrderly;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * 线下rocketMq顺序消费监听到阿里云sdk顺序消费监听的桥接。
+ * 同一消息队列的消息由一个线程按顺序消费，消费失败（Suspend或异常）时暂停该队列，稍后从失败的消息重新消费；
+ * 不同队列之间并行消费。
+ *
+ * @author qyf
+ * @Date 2019/8/20
+ */
+public class OrderlyListenerBridge implements MessageListenerOrderly {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /** 消费分组 */
+    private final String group;
+
+    /** 线下rocketMq的主题 */
+    private final String topic;
+
+    /** 阿里云sdk的顺序消费监听 */
+    private final MessageOrderListener orderListener;
+
+    /** 订阅过滤及统计 */
+    private final SubscriptionFilter subscriptionFilter;
+
+    /** 消息体解压 */
+    private final CodecStage codecStage;
+
+    /** 延时消息投递偏差统计 */
+    private final DeliveryDeviation deliveryDeviation;
+
+    /** 消费失败时队列暂停的毫秒数，未配置时为null（使用rocketMq默认值） */
+    private final Integer suspendTimeMillis;
+
+    /** 消费统计，供流控调整拉取 */
+    private final FlowStats flowStats;
+
+    /** 消费去重 */
+    private final IdempotentFilter idempotentFilter;
+
+    public OrderlyListenerBridge(SubscriptionEntity entity, MqMetrics metrics, CodecStage codecStage, FlowStats flowStats) {
+        this.flowStats = flowStats;
+        this.idempotentFilter = entity.getIdempotentFilter();
+        this.group = entity.getGroup();
+        this.topic = entity.getTopic();
+        this.orderListener = entity.getOrderListener();
+        this.subscriptionFilter = new SubscriptionFilter(entity, metrics);
+        this.deliveryDeviation = new DeliveryDeviation(entity.getTopic(), metrics);
+        this.codecStage = codecStage;
+        this.suspendTimeMillis = Consumer.getIntProperty(entity.getProperties(), entity.getSubscription(),
+                PropertyKeyConst.SuspendTimeMillis);
+    }
+
+    @Override
+    public ConsumeOrderlyStatus consumeMessage(List<MessageExt> msgs, ConsumeOrderlyContext context) {
+        logger.info("收到线下顺序消息: {},{},{}", group, topic, msgs);
+        subscriptionFilter.recordOffsets(msgs);
+        for (MessageExt msg : msgs) {
+            if (!subscriptionFilter.accept(msg) || idempotentFilter.isDuplicate(msg)) {
+                continue;
+            }
+            long start = System.currentTimeMillis();
+            try {
+                // 解压失败与消费异常一样暂停队列；解压是幂等的，暂停后重新消费同一消息不会再次解压
+                codecStage.decode(msg);
+                deliveryDeviation.record(msg);
+                Message message = MessageUtils.toOnsMessage(msg);
+                OrderAction action = orderListener.consume(message, new ConsumeOrderContext());
+                flowStats.record(1, System.currentTimeMillis() - start);
+                if (action != OrderAction.Success) {
+                    return this.suspend(context);
+                }
+                idempotentFilter.markConsumed(msg);
+            } catch (Throwable e) {
+                // 消费失败（如下游超时）的耗时同样计入，流控才能发现消费变慢
+                flowStats.record(1, System.currentTimeMillis() - start);
+                logger.error("顺序消息消费异常：{},{},msgId:{}，e:{}", group, topic, msg.getMsgId(), e);
+                return this.suspend(context);
+            }
+        }
+        return ConsumeOrderlyStatus.SUCCESS;
+    }
+
+    /**
+     * 暂停当前队列，整批稍后重新消费（顺序消费一批默认只有一条消息）。
+     */
+    private ConsumeOrderlyStatus suspend(ConsumeOrderlyContext context) {
+        if (suspendTimeMillis != null) {
+            context.setSuspendCurrentQueueTimeMillis(suspendTimeMillis);
+        }
+        return ConsumeOrderlyStatus.SUSPEND_CURRENT_QUEUE_A_MOMENT;
+    }
+}
@@ -0,0 +1,43 @@
+package com.hsjry.plutus.sdk.mq;
+
+import org.apache.rocketmq.client.consumer.listener.ConsumeOrderlyContext;
+import org.apache.rocketmq.client.consumer.listener.ConsumeOrderlyStatus;
+import org.apache.rocketmq.client.consumer.listener.MessageListenerOrderly;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按主题分派的顺序消费监听，同TopicDispatchListener。
+ *
+ * @author qyf
+ * @Date 2019/8/20
+ */
+public class OrderlyTopicDispatchListener implements MessageListenerOrderly {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * 线下rocketMq的主题 -> 顺序消费监听，启动时建好后不再修改
+     */
+    private final Map<String, MessageListenerOrderly> listenerMap;
+
+    public OrderlyTopicDispatchListener(Map<String, MessageListenerOrderly> listenerMap) {
+        this.listenerMap = new HashMap<>(listenerMap);
+    }
+
+    @Override
+    public ConsumeOrderlyStatus consumeMessage(List<MessageExt> msgs, ConsumeOrderlyContext context) {
+        String topic = msgs.get(0).getTopic();
+        MessageListenerOrderly listener = listenerMap.get(topic);
+        if (listener == null) {
+            // 未订阅的主题不应出现，直接确认避免反复投递
+            logger.error("没有找到主题的顺序消费监听：{}，消息：{}", topic, msgs);
+            return ConsumeOrderlyStatus.SUCCESS;
+        }
+        return listener.consumeMessage(msgs, context);
+    }
+}
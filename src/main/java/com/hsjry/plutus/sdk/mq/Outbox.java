@@ -0,0 +1,467 @@
+package com.hsjry.plutus.sdk.mq;
+
+import com.hsjry.plutus.sdk.component.EnvComponent;
+import com.hsjry.plutus.sdk.component.MqMetrics;
+import org.apache.rocketmq.client.common.ClientErrorCode;
+import org.apache.rocketmq.client.exception.MQBrokerException;
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageAccessor;
+import org.apache.rocketmq.common.message.MessageClientIDSetter;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.protocol.ResponseCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 本地出站箱（开发和测试环境的线下消息）。
+ * 开启后发送先追加到本地出站日志，刷盘后即返回（多个发送共用一次刷盘），由后台转发线程按生产者成批发送到broker，
+ * 发送失败按退避时间重试，转发成功后推进检查点。broker慢或不可用时发送不受影响，重启后从检查点继续转发（至少一次）。
+ * 重试不能成功的记录（消息不合法、主题不存在、无权限、生产者已不存在）转入出站目录下的搁置文件，不阻塞后续记录；
+ * 积压超过mq.outbox.maxBacklogBytes时发送直接失败。
+ *
+ * @author qyf
+ * @Date 2019/8/23
+ */
+@Component
+public class Outbox {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /** 重试的初始退避毫秒数 */
+    private static final long INITIAL_BACKOFF_MS = 100;
+
+    /** 没有待转发记录时的等待毫秒数 */
+    private static final long IDLE_WAIT_MS = 5;
+
+    /** 搁置文件名 */
+    private static final String PARKED_FILE_NAME = "parked.log";
+
+    @Autowired
+    private EnvComponent envComponent;
+
+    @Autowired
+    private MqMetrics mqMetrics;
+
+    @Autowired
+    private Producer producer;
+
+    @Autowired
+    private BatchSender batchSender;
+
+    /** 出站日志，未开启时为null */
+    private OutboxLog log;
+
+    /** 写入锁，也用于唤醒刷盘线程 */
+    private final Object writeLock = new Object();
+
+    /** 等待刷盘的发送：记录结束位置及其future，按位置排列 */
+    private final Queue<Waiter> waiters = new ArrayDeque<>();
+
+    /** 已刷盘的位置 */
+    private volatile long committedPosition;
+
+    /** 已转发的位置 */
+    private volatile long relayPosition;
+
+    /** 记录位置 -> 转发结果（仅sendMsgFuture等需要结果的发送） */
+    private final Map<Long, CompletableFuture<SendResult>> resultMap = new ConcurrentHashMap<>();
+
+    private Thread flusher;
+
+    private Thread relay;
+
+    private volatile boolean running;
+
+    /** 一批中有记录不能重试时，逐条转发以找出该记录 */
+    private boolean isolate;
+
+    /** 搁置文件，记录格式：长度 + 出站日志记录 */
+    private DataOutputStream parked;
+
+    private LongAdder appended;
+
+    private LongAdder relayed;
+
+    private LongAdder retries;
+
+    private LongAdder dropped;
+
+    private LongAdder rejected;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (envComponent.isProductEnv() || !StringUtils.hasText(envComponent.getOutboxDir())) {
+            return;
+        }
+        this.log = new OutboxLog(new File(envComponent.getOutboxDir()), envComponent.getOutboxSegmentBytes());
+        this.relayPosition = log.recover();
+        this.committedPosition = log.getWritePosition();
+
+        this.appended = mqMetrics.counter("outbox.appended");
+        this.relayed = mqMetrics.counter("outbox.relayed");
+        this.retries = mqMetrics.counter("outbox.retries");
+        this.dropped = mqMetrics.counter("outbox.dropped");
+        this.rejected = mqMetrics.counter("outbox.rejected");
+        mqMetrics.gauge("outbox.backlogBytes", () -> committedPosition - relayPosition);
+
+        this.running = true;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("plutus-mq-outbox-");
+        threadFactory.setDaemon(true);
+        this.flusher = threadFactory.newThread(this::flushLoop);
+        this.relay = threadFactory.newThread(this::relayLoop);
+        flusher.start();
+        relay.start();
+        logger.info("本地出站箱已开启，目录：{}，待转发：{}字节", envComponent.getOutboxDir(), committedPosition - relayPosition);
+    }
+
+    /**
+     * 是否开启了本地出站箱。
+     *
+     * @return
+     */
+    public boolean isEnabled() {
+        return log != null;
+    }
+
+    /**
+     * 追加消息到出站日志。
+     *
+     * @param mqEntity
+     * @param rocketMsg
+     * @return 刷盘后完成的future
+     */
+    public CompletableFuture<Void> append(MqEntity mqEntity, Message rocketMsg) {
+        return this.append(mqEntity, rocketMsg, null);
+    }
+
+    /**
+     * 追加消息到出站日志，返回转发到broker后的发送结果。
+     *
+     * @param mqEntity
+     * @param rocketMsg
+     * @return
+     */
+    public CompletableFuture<SendResult> appendForResult(MqEntity mqEntity, Message rocketMsg) {
+        CompletableFuture<SendResult> result = new CompletableFuture<>();
+        return this.append(mqEntity, rocketMsg, result).thenCompose(v -> result);
+    }
+
+    private CompletableFuture<Void> append(MqEntity mqEntity, Message rocketMsg, CompletableFuture<SendResult> result) {
+        // 写入日志前生成消息id，每次转发（含重试和重启后重发）都用同一个id，消费端可按id去重
+        MessageClientIDSetter.setUniqID(rocketMsg);
+        byte[] payload = encode(mqEntity.getPid(), rocketMsg);
+        CompletableFuture<Void> flushed = new CompletableFuture<>();
+        synchronized (writeLock) {
+            long position = log.getWritePosition();
+            long maxBacklogBytes = envComponent.getOutboxMaxBacklogBytes();
+            if (maxBacklogBytes > 0 && position - relayPosition + payload.length > maxBacklogBytes) {
+                rejected.increment();
+                throw new RuntimeException("出站箱积压超过上限：" + maxBacklogBytes + "字节，待转发："
+                        + (position - relayPosition) + "字节");
+            }
+            long end;
+            try {
+                end = log.append(payload);
+            } catch (IOException e) {
+                throw new RuntimeException("消息写入出站日志失败", e);
+            }
+            if (result != null) {
+                // 段尾放不下时记录写在下一段开头
+                resultMap.put(end - OutboxLog.HEADER_SIZE - payload.length, result);
+            }
+            waiters.add(new Waiter(end, flushed));
+            writeLock.notify();
+        }
+        appended.increment();
+        return flushed;
+    }
+
+    /**
+     * 刷盘线程：有新写入即刷盘，刷盘期间到达的写入在下一次一起刷盘。
+     */
+    private void flushLoop() {
+        while (running) {
+            long target;
+            synchronized (writeLock) {
+                while (running && log.getWritePosition() == committedPosition) {
+                    try {
+                        writeLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                target = log.getWritePosition();
+            }
+            try {
+                log.force(committedPosition, target);
+                committedPosition = target;
+                this.completeWaiters(target, null);
+            } catch (Throwable e) {
+                logger.error("出站日志刷盘失败，e:{}", e);
+                this.completeWaiters(target, e);
+            }
+        }
+    }
+
+    private void completeWaiters(long target, Throwable e) {
+        List<Waiter> completed = new ArrayList<>();
+        synchronized (writeLock) {
+            while (!waiters.isEmpty() && waiters.peek().position <= target) {
+                completed.add(waiters.poll());
+            }
+        }
+        for (Waiter waiter : completed) {
+            if (e == null) {
+                waiter.future.complete(null);
+            } else {
+                waiter.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 转发线程：读取已刷盘的记录，同一生产者的连续记录成批发送，失败时退避重试。
+     */
+    private void relayLoop() {
+        long backoff = INITIAL_BACKOFF_MS;
+        while (running) {
+            try {
+                if (this.relayBatch()) {
+                    backoff = INITIAL_BACKOFF_MS;
+                } else {
+                    Thread.sleep(IDLE_WAIT_MS);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Throwable e) {
+                retries.increment();
+                logger.error("出站消息转发失败，{}毫秒后重试，e:{}", backoff, e);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                backoff = Math.min(backoff * 2, envComponent.getOutboxMaxBackoffMs());
+            }
+        }
+    }
+
+    /**
+     * 转发一批记录。
+     *
+     * @return 是否有记录被转发
+     * @throws Exception 转发失败，检查点停在第一条失败的记录
+     */
+    private boolean relayBatch() throws Exception {
+        long position = log.skipEndOfSegment(relayPosition);
+        long committed = committedPosition;
+        String pid = null;
+        List<Message> messages = new ArrayList<>();
+        List<byte[]> payloads = new ArrayList<>();
+        List<Long> positions = new ArrayList<>();
+        int batchSize = isolate ? 1 : envComponent.getOutboxRelayBatchSize();
+        while (position < committed && messages.size() < batchSize) {
+            byte[] payload = log.read(position);
+            if (payload == null) {
+                throw new IOException("出站日志记录无效，位置：" + position);
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            String recordPid = in.readUTF();
+            if (pid != null && !pid.equals(recordPid)) {
+                break;
+            }
+            Message message = decode(in);
+            // 同一生产者id的bean可能对应不同主题，一批只发往一个主题
+            if (!messages.isEmpty() && !messages.get(0).getTopic().equals(message.getTopic())) {
+                break;
+            }
+            pid = recordPid;
+            messages.add(message);
+            payloads.add(payload);
+            positions.add(position);
+            position = log.skipEndOfSegment(position + OutboxLog.HEADER_SIZE + payload.length);
+        }
+        if (messages.isEmpty()) {
+            return false;
+        }
+
+        String topic = messages.get(0).getTopic();
+        MqEntity mqEntity = producer.getMqProductorInfo(pid, topic);
+        if (mqEntity == null) {
+            // 生产者已不存在（如重启后配置变更），无法转发
+            RuntimeException e = new RuntimeException("出站消息的生产者不存在：" + pid + "，主题：" + topic);
+            for (int i = 0; i < payloads.size(); i++) {
+                this.park(positions.get(i), payloads.get(i), e);
+            }
+            this.advance(position);
+            return true;
+        }
+        producer.ensureStarted(mqEntity);
+        List<CompletableFuture<SendResult>> results = batchSender.send(mqEntity, messages);
+        for (int i = 0; i < results.size(); i++) {
+            SendResult sendResult;
+            try {
+                sendResult = results.get(i).join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() == null ? e : e.getCause();
+                if (!retryable(cause)) {
+                    if (messages.size() == 1) {
+                        // 重试也不能成功，搁置后继续转发后面的记录
+                        isolate = false;
+                        this.park(positions.get(i), payloads.get(i), cause);
+                        this.advance(position);
+                        return true;
+                    }
+                    // 一批一起失败，从失败的记录开始逐条转发，找出不能成功的记录
+                    isolate = true;
+                    this.advance(positions.get(i));
+                    return true;
+                }
+                // 之前的记录已发送成功，从失败的记录开始重试
+                if (i > 0) {
+                    this.advance(positions.get(i));
+                }
+                throw e;
+            }
+            relayed.increment();
+            CompletableFuture<SendResult> result = resultMap.remove(positions.get(i));
+            if (result != null) {
+                result.complete(sendResult);
+            }
+        }
+        isolate = false;
+        this.advance(position);
+        return true;
+    }
+
+    /**
+     * 是否可以重试，不可重试的只有消息不合法、主题不存在和无权限，其他异常（通信、超时、限流等）都退避重试。
+     */
+    private static boolean retryable(Throwable e) {
+        if (e instanceof MQClientException) {
+            int code = ((MQClientException) e).getResponseCode();
+            return code != ResponseCode.MESSAGE_ILLEGAL && code != ClientErrorCode.NOT_FOUND_TOPIC_EXCEPTION;
+        }
+        if (e instanceof MQBrokerException) {
+            int code = ((MQBrokerException) e).getResponseCode();
+            return code != ResponseCode.MESSAGE_ILLEGAL && code != ResponseCode.TOPIC_NOT_EXIST
+                    && code != ResponseCode.NO_PERMISSION;
+        }
+        return true;
+    }
+
+    /**
+     * 搁置不能转发的记录，追加到搁置文件后计入丢弃数，需要时可从搁置文件人工恢复。
+     *
+     * @param position 记录在出站日志中的位置
+     * @param payload  出站日志记录
+     * @param e        转发失败的原因
+     * @throws IOException 写入搁置文件失败，转发线程退避后重试
+     */
+    private void park(long position, byte[] payload, Throwable e) throws IOException {
+        if (parked == null) {
+            File file = new File(envComponent.getOutboxDir(), PARKED_FILE_NAME);
+            this.parked = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        }
+        parked.writeInt(payload.length);
+        parked.write(payload);
+        parked.flush();
+        dropped.increment();
+        logger.error("出站消息不能转发，已搁置：位置：{}，e:{}", position, e);
+        CompletableFuture<SendResult> result = resultMap.remove(position);
+        if (result != null) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private void advance(long position) throws IOException {
+        log.checkpoint(position);
+        relayPosition = position;
+    }
+
+    private static byte[] encode(String pid, Message rocketMsg) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 + rocketMsg.getBody().length);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(pid);
+            out.writeUTF(rocketMsg.getTopic());
+            out.writeInt(rocketMsg.getFlag());
+            out.writeUTF(MessageDecoder.messageProperties2String(rocketMsg.getProperties()));
+            out.writeInt(rocketMsg.getBody().length);
+            out.write(rocketMsg.getBody());
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Message decode(DataInputStream in) throws IOException {
+        Message message = new Message();
+        message.setTopic(in.readUTF());
+        message.setFlag(in.readInt());
+        MessageAccessor.setProperties(message, MessageDecoder.string2messageProperties(in.readUTF()));
+        byte[] body = new byte[in.readInt()];
+        in.readFully(body);
+        message.setBody(body);
+        return message;
+    }
+
+    @PreDestroy
+    public void destroy() throws IOException, InterruptedException {
+        if (log == null) {
+            return;
+        }
+        running = false;
+        flusher.interrupt();
+        relay.interrupt();
+        flusher.join(1000);
+        relay.join(1000);
+        // 刷盘线程退出前写入的消息
+        long writePosition = log.getWritePosition();
+        log.force(committedPosition, writePosition);
+        this.completeWaiters(writePosition, null);
+        log.close();
+        if (parked != null) {
+            parked.close();
+        }
+        logger.info("本地出站箱已关闭，待转发：{}字节", log.getWritePosition() - relayPosition);
+    }
+
+    /**
+     * 等待刷盘的发送。
+     */
+    private static final class Waiter {
+        private final long position;
+        private final CompletableFuture<Void> future;
+
+        Waiter(long position, CompletableFuture<Void> future) {
+            this.position = position;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.hsjry.plutus.sdk.mq;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * 本地出站日志（内存映射、按段的预写日志）。
+ * 段大小固定，以全局位置（段序号 * 段大小 + 段内位置）寻址；记录格式为：长度、CRC、内容，
+ * 段尾放不下的记录写入下一段，并在段尾写入结束标记。未写入的区域为0，恢复时从检查点扫描到第一条无效记录即为写入位置。
+ * 写入由调用方加锁串行，读取只读到已刷盘的位置。
+ *
+ * @author qyf
+ * @Date 2019/8/23
+ */
+class OutboxLog {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /** 记录头：长度、CRC */
+    static final int HEADER_SIZE = 4 + 4;
+
+    /** 段结束标记 */
+    private static final int END_OF_SEGMENT = -1;
+
+    /** 段文件名后缀 */
+    private static final String SUFFIX = ".outbox";
+
+    /** 检查点文件名 */
+    private static final String CHECKPOINT = "checkpoint";
+
+    private final File dir;
+
+    private final int segmentBytes;
+
+    /** 段序号 -> 内存映射 */
+    private final Map<Long, MappedByteBuffer> segmentMap = new ConcurrentHashMap<>();
+
+    /** 检查点文件 */
+    private final FileChannel checkpointChannel;
+
+    /** 写入位置 */
+    private long writePosition;
+
+    OutboxLog(File dir, int segmentBytes) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("无法创建出站日志目录：" + dir);
+        }
+        this.checkpointChannel = new RandomAccessFile(new File(dir, CHECKPOINT), "rw").getChannel();
+    }
+
+    /**
+     * 读取检查点（已转发的位置），并从检查点扫描出写入位置。
+     *
+     * @return 检查点
+     * @throws IOException
+     */
+    long recover() throws IOException {
+        long checkpoint = 0;
+        if (checkpointChannel.size() >= 8) {
+            ByteBuffer buffer = ByteBuffer.allocate(8);
+            checkpointChannel.read(buffer, 0);
+            buffer.flip();
+            checkpoint = buffer.getLong();
+        }
+        long position = checkpoint;
+        while (true) {
+            int length = this.peekLength(position);
+            if (length == END_OF_SEGMENT) {
+                position = this.nextSegment(position);
+                continue;
+            }
+            if (length <= 0 || this.read(position) == null) {
+                break;
+            }
+            position += HEADER_SIZE + length;
+        }
+        // 清掉崩溃时写了一半的记录
+        MappedByteBuffer segment = this.segment(position / segmentBytes);
+        for (int i = (int) (position % segmentBytes); i < segmentBytes && segment.get(i) != 0; i++) {
+            segment.put(i, (byte) 0);
+        }
+        this.writePosition = position;
+        this.deleteSegmentsBefore(checkpoint);
+        logger.info("出站日志恢复完成，目录：{}，检查点：{}，写入位置：{}", dir, checkpoint, position);
+        return checkpoint;
+    }
+
+    /**
+     * 追加一条记录（调用方加锁）。
+     *
+     * @param payload
+     * @return 记录结束后的位置
+     * @throws IOException
+     */
+    long append(byte[] payload) throws IOException {
+        int size = HEADER_SIZE + payload.length;
+        if (size > segmentBytes) {
+            throw new IOException("消息超过出站日志段大小：" + size);
+        }
+        int offset = (int) (writePosition % segmentBytes);
+        if (offset + size > segmentBytes) {
+            if (offset + 4 <= segmentBytes) {
+                this.segment(writePosition / segmentBytes).putInt(offset, END_OF_SEGMENT);
+            }
+            writePosition = this.nextSegment(writePosition);
+            offset = 0;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buffer = this.segment(writePosition / segmentBytes).duplicate();
+        buffer.position(offset);
+        // 先写内容和CRC，最后写长度，读取方看到长度时记录已完整
+        buffer.putInt(0).putInt((int) crc.getValue()).put(payload);
+        buffer.putInt(offset, payload.length);
+        writePosition += size;
+        return writePosition;
+    }
+
+    long getWritePosition() {
+        return writePosition;
+    }
+
+    /**
+     * 刷盘[from, to)区间涉及的段。
+     *
+     * @param from
+     * @param to
+     * @throws IOException
+     */
+    void force(long from, long to) throws IOException {
+        if (to <= from) {
+            return;
+        }
+        for (long sequence = from / segmentBytes; sequence <= (to - 1) / segmentBytes; sequence++) {
+            this.segment(sequence).force();
+        }
+    }
+
+    /**
+     * 读取一条记录，位置处没有有效记录时返回null。
+     *
+     * @param position
+     * @return
+     * @throws IOException
+     */
+    byte[] read(long position) throws IOException {
+        int offset = (int) (position % segmentBytes);
+        if (offset + HEADER_SIZE > segmentBytes) {
+            return null;
+        }
+        ByteBuffer buffer = this.segment(position / segmentBytes).duplicate();
+        buffer.position(offset);
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (length <= 0 || offset + HEADER_SIZE + length > segmentBytes) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        buffer.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == checksum ? payload : null;
+    }
+
+    /**
+     * 跳过段尾，返回下一条记录的位置。
+     *
+     * @param position 当前记录的位置
+     * @return
+     * @throws IOException
+     */
+    long skipEndOfSegment(long position) throws IOException {
+        int length = this.peekLength(position);
+        return length == END_OF_SEGMENT || (position % segmentBytes) + HEADER_SIZE > segmentBytes
+                ? this.nextSegment(position) : position;
+    }
+
+    /**
+     * 持久化检查点，并删除检查点之前的段。
+     *
+     * @param checkpoint
+     * @throws IOException
+     */
+    void checkpoint(long checkpoint) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.putLong(checkpoint).flip();
+        checkpointChannel.write(buffer, 0);
+        checkpointChannel.force(false);
+        this.deleteSegmentsBefore(checkpoint);
+    }
+
+    void close() throws IOException {
+        checkpointChannel.close();
+    }
+
+    private int peekLength(long position) throws IOException {
+        int offset = (int) (position % segmentBytes);
+        if (offset + 4 > segmentBytes) {
+            return END_OF_SEGMENT;
+        }
+        return this.segment(position / segmentBytes).getInt(offset);
+    }
+
+    private long nextSegment(long position) {
+        return (position / segmentBytes + 1) * segmentBytes;
+    }
+
+    /**
+     * 删除检查点所在段之前的段，映射在垃圾回收时释放。
+     */
+    private void deleteSegmentsBefore(long checkpoint) {
+        long current = checkpoint / segmentBytes;
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            long sequence = Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length()));
+            if (sequence < current) {
+                segmentMap.remove(sequence);
+                if (!file.delete()) {
+                    logger.warn("删除出站日志段失败：{}", file);
+                }
+            }
+        }
+    }
+
+    private MappedByteBuffer segment(long sequence) throws IOException {
+        MappedByteBuffer segment = segmentMap.get(sequence);
+        if (segment != null) {
+            return segment;
+        }
+        synchronized (segmentMap) {
+            segment = segmentMap.get(sequence);
+            if (segment == null) {
+                File file = new File(dir, String.format("%020d", sequence) + SUFFIX);
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+                }
+                segmentMap.put(sequence, segment);
+            }
+            return segment;
+        }
+    }
+}
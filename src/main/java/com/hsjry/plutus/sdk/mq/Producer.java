@@ -1,9 +1,13 @@
 package com.hsjry.plutus.sdk.mq;
 
 import com.aliyun.openservices.ons.api.bean.ProducerBean;
+import com.hsjry.plutus.sdk.aspect.SendMethodTable;
+import com.hsjry.plutus.sdk.codec.CodecStage;
 import com.hsjry.plutus.sdk.component.EnvComponent;
+import com.hsjry.plutus.sdk.component.MqMetrics;
 import com.hsjry.plutus.sdk.utils.AopTargetUtils;
 import com.hsjry.plutus.sdk.utils.MqHookerUtils;
+import org.apache.rocketmq.client.exception.MQClientException;
 import org.apache.rocketmq.client.producer.DefaultMQProducer;
 import org.apache.rocketmq.client.producer.SendResult;
 import org.apache.rocketmq.common.message.Message;
@@ -16,6 +20,7 @@ import org.springframework.util.CollectionUtils;
 
 import javax.annotation.PostConstruct;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 初始化消息生产者列表。
@@ -26,6 +31,24 @@ import java.util.*;
 public class Producer {
     Logger logger = LoggerFactory.getLogger(this.getClass());
 
+    /** 启动报告中的客户端类型 */
+    private static final String CLIENT_TYPE = "producer";
+
+    /** rocketMq自带压缩的默认阈值（字节） */
+    private static final int DEFAULT_COMPRESS_OVER = 1024 * 4;
+
+    /** 每秒发送条数上限（ProducerBean属性），主题级为：主题.SendRateLimit */
+    public static final String SEND_RATE_LIMIT = "SendRateLimit";
+
+    /** 限速时允许的突发条数，默认等于每秒条数 */
+    public static final String SEND_RATE_BURST = "SendRateBurst";
+
+    /** 自适应并发的上限，配置后按发送耗时自动调整并发 */
+    public static final String SEND_MAX_CONCURRENCY = "SendMaxConcurrency";
+
+    /** 自适应并发的初始值 */
+    public static final String SEND_INITIAL_CONCURRENCY = "SendInitialConcurrency";
+
     /**
      * 取得所有替换前（阿里云消息sdk）生产者beans列表
      */
@@ -33,13 +56,42 @@ public class Producer {
     private List<? extends ProducerBean > producerBeanList;
 
     /**
-     * 取得所有替换前（阿里云消息sdk）生产者beans列表
+     * 生产者id -> 创建线下客户端的生产者实体（同一生产者id的bean共用该客户端）
      */
     private Map<String, MqEntity> mqEntityMap = new HashMap<>();
 
+    /**
+     * 生产者id/线下主题 -> 生产者实体，每个bean的主题一个
+     */
+    private Map<String, MqEntity> routeMap = new ConcurrentHashMap<>();
+
+    /** 主题级令牌桶，同一主题的生产者共用 */
+    private Map<String, TokenBucket> topicBucketMap = new ConcurrentHashMap<>();
+
     @Autowired
     private EnvComponent envComponent;
 
+    @Autowired
+    private ProducerRouteCache producerRouteCache;
+
+    @Autowired
+    private SendMethodTable sendMethodTable;
+
+    @Autowired
+    private ClientStarter clientStarter;
+
+    @Autowired
+    private ClientSharingStrategy clientSharingStrategy;
+
+    @Autowired
+    private CodecStage codecStage;
+
+    @Autowired
+    private SendPolicyResolver sendPolicyResolver;
+
+    @Autowired
+    private MqMetrics mqMetrics;
+
     /**
      * 替换阿里云sdk的消息队列beans为线下的消息对象（开发和测试环境，线上环境不变）。
      */
@@ -59,6 +111,15 @@ public class Producer {
         logger.info("开发和测试环境的消息生产者创建开始.........................");
         producerBeanList.forEach(producerBean -> this.createProductor(producerBean));
 
+        if (envComponent.isProducerLazyStart()) {
+            logger.info("消息生产者为延迟启动模式，首次发送时启动。");
+        } else {
+            // 并行启动所有生产者
+            Map<String, ClientStarter.StartAction> actions = new LinkedHashMap<>();
+            mqEntityMap.values().forEach(mqEntity -> actions.put(mqEntity.getGroup(), () -> this.startProducer(mqEntity)));
+            clientStarter.startAll(CLIENT_TYPE, actions);
+        }
+
         // 注册钩子，以便退出时关闭消息队列
         this.registHooker(this.mqEntityMap);
         logger.info("开发和测试环境的消息生产者创建结束。");
@@ -98,31 +159,151 @@ public class Producer {
         String cid = properties.getProperty("ConsumerId");
         mqEntity.setCid(cid);
         String group = envComponent.getGroup(pid);
+        mqEntity.setGroup(group);
+        // 为了区分不同的环境（TEST1,TEST2,DEV)而不产生干扰
+        mqEntity.setRocketTopic(envComponent.getCurActiveProfile() + "_" + topic);
+        mqEntity.setTopicCodec(codecStage.resolve(topic, mqEntity.getRocketTopic()));
+        mqEntity.setSendLimiter(this.createSendLimiter(topic, mqEntity.getRocketTopic(), properties));
+        mqEntity.setSendPolicy(sendPolicyResolver.resolve(topic, mqEntity.getRocketTopic(), mqEntity.getSendLimiter()));
+        mqEntity.setSubProducerBean(producerBean);
+
+        MqEntity existing = mqEntityMap.get(pid);
+        if (existing != null) {
+            // 同一生产者id的多个bean共用一个线下客户端，避免重复分组启动失败；主题、压缩和发送策略仍按各自的bean
+            DefaultMQProducer producer = existing.getDefaultMQProducer();
+            if (mqEntity.getTopicCodec().isEnabled() != existing.getTopicCodec().isEnabled()) {
+                // 自带压缩按客户端生效，只要有主题未开启压缩阶段就保留自带压缩，开启的主题可能被重复压缩
+                producer.setCompressMsgBodyOverHowmuch(DEFAULT_COMPRESS_OVER);
+                logger.warn("生产者id：{}下的主题压缩配置不一致，主题：{}与{}，已恢复rocketMq自带的压缩，请统一配置",
+                        pid, topic, existing.getTopic());
+            }
+            mqEntity.setDefaultMQProducer(producer);
+            this.registerRoute(beiHuiProducer, mqEntity);
+            logger.info("该消息的分组已经创建过，共用其客户端：{}，主题：{}", existing.getGroup(), topic);
+            return;
+        }
         DefaultMQProducer producer = new DefaultMQProducer(group);
         producer.setNamesrvAddr(envComponent.getMqServer());
+        // 同步发送由发送策略退避重试，关闭rocketMq自身的立即重试以免重试次数相乘；异步发送仍由rocketMq重试
+        producer.setRetryTimesWhenSendFailed(0);
+        producer.setRetryTimesWhenSendAsyncFailed(mqEntity.getSendPolicy().getAttempts() - 1);
+        producer.setSendLatencyFaultEnable(envComponent.isSendLatencyFaultEnable());
+        if (mqEntity.getTopicCodec().isEnabled()) {
+            // 已由压缩阶段压缩，关闭rocketMq自带的zlib压缩，避免重复压缩
+            producer.setCompressMsgBodyOverHowmuch(Integer.MAX_VALUE);
+        }
+        // 按共享策略设置客户端实例
+        clientSharingStrategy.configure(producer, CLIENT_TYPE, group, producerBean);
 
         // 保持目标实例和新的消息生产者
         mqEntity.setDefaultMQProducer(producer);
-        mqEntity.setSubProducerBean(producerBean);
 
+        mqEntityMap.put(pid, mqEntity);
+        this.registerRoute(beiHuiProducer, mqEntity);
+        logger.info("创建主题：{},分组:{}的生产者。", topic, group);
+    }
+
+    /**
+     * 登记生产者bean的路由。
+     *
+     * @param beiHuiProducer 目标实例
+     * @param mqEntity
+     */
+    private void registerRoute(Object beiHuiProducer, MqEntity mqEntity) {
+        routeMap.put(routeKey(mqEntity.getPid(), mqEntity.getRocketTopic()), mqEntity);
+        // 以目标实例登记路由，发送时由切面直接查找
+        producerRouteCache.put(beiHuiProducer, mqEntity);
+        // 编译该生产者类的发送方法分派表
+        sendMethodTable.register(beiHuiProducer.getClass());
+    }
+
+    private static String routeKey(String pid, String rocketTopic) {
+        return pid + "/" + rocketTopic;
+    }
+
+    /**
+     * 按ProducerBean属性创建发送限制，均未配置时不做限制。
+     *
+     * @param topic
+     * @param rocketTopic
+     * @param properties
+     * @return
+     */
+    private SendLimiter createSendLimiter(String topic, String rocketTopic, Properties properties) {
+        TokenBucket producerBucket = this.createBucket(properties.getProperty(SEND_RATE_LIMIT),
+                properties.getProperty(SEND_RATE_BURST));
+        String topicRate = properties.getProperty(topic + "." + SEND_RATE_LIMIT);
+        TokenBucket topicBucket = topicRate == null ? null : topicBucketMap.computeIfAbsent(topic,
+                key -> this.createBucket(topicRate, properties.getProperty(topic + "." + SEND_RATE_BURST)));
+        AimdLimiter concurrency = null;
+        String maxConcurrency = properties.getProperty(SEND_MAX_CONCURRENCY);
+        if (maxConcurrency != null) {
+            int max = Integer.parseInt(maxConcurrency.trim());
+            int initial = Integer.parseInt(properties.getProperty(SEND_INITIAL_CONCURRENCY, String.valueOf(max)).trim());
+            concurrency = new AimdLimiter(initial, 1, max);
+            mqMetrics.gauge("concurrency." + rocketTopic + ".limit", concurrency::getLimit);
+            mqMetrics.gauge("concurrency." + rocketTopic + ".inflight", concurrency::getInflight);
+        }
+        if (producerBucket == null && topicBucket == null && concurrency == null) {
+            return SendLimiter.NONE;
+        }
+        logger.info("主题：{}的发送限制，每秒条数：{}，主题每秒条数：{}，最大并发：{}", topic,
+                properties.getProperty(SEND_RATE_LIMIT), topicRate, maxConcurrency);
+        return new SendLimiter(producerBucket, topicBucket, concurrency,
+                mqMetrics.counter("limiter." + rocketTopic + ".throttledMillis"));
+    }
+
+    private TokenBucket createBucket(String rate, String burst) {
+        if (rate == null) {
+            return null;
+        }
+        double permitsPerSecond = Double.parseDouble(rate.trim());
+        return new TokenBucket(permitsPerSecond, burst == null ? permitsPerSecond : Double.parseDouble(burst.trim()));
+    }
+
+    /**
+     * 启动生产者，无论成功与否只启动一次。
+     *
+     * @param mqEntity
+     * @throws MQClientException
+     */
+    private void startProducer(MqEntity mqEntity) throws MQClientException {
         try {
             //Launch the instance.
-            producer.start();
-        } catch (Exception e) {
-            logger.info("该消息的分组已经创建过，无需再建：{}----->{}", group, e.getMessage());
+            // 不替换回调线程池：共享客户端实例时它也执行消费者的拉取回调，异步发送的future由AsyncSendExecutor转到自己的线程池完成
+            mqEntity.getDefaultMQProducer().start();
+        } finally {
+            mqEntity.setStarted(true);
         }
+    }
 
-        mqEntityMap.put(pid, mqEntity);
-        logger.info("创建主题：{},分组:{}的生产者。", topic, group);
+    /**
+     * 确保生产者已启动，延迟启动模式下首次发送时启动。
+     *
+     * @param mqEntity
+     */
+    public void ensureStarted(MqEntity mqEntity) {
+        // 启动状态记在创建客户端的生产者实体上
+        MqEntity owner = mqEntityMap.getOrDefault(mqEntity.getPid(), mqEntity);
+        if (owner.isStarted()) {
+            return;
+        }
+        synchronized (owner) {
+            if (!owner.isStarted()) {
+                clientStarter.start(CLIENT_TYPE, owner.getGroup(), () -> this.startProducer(owner));
+            }
+        }
     }
 
     /**
-     * 取得线下rockmq所有的消息发送者实体。
+     * 按生产者id和线下主题取得生产者实体。
      *
+     * @param pid
+     * @param rocketTopic
      * @return
      */
-    public MqEntity getMqProductorInfo(String pid) {
-        return this.mqEntityMap.get(pid);
+    public MqEntity getMqProductorInfo(String pid, String rocketTopic) {
+        return this.routeMap.get(routeKey(pid, rocketTopic));
     }
 
 
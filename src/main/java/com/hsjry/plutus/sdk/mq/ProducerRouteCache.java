@@ -0,0 +1,43 @@
+package com.hsjry.plutus.sdk.mq;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 生产者路由缓存。
+ * 以生产者实例（代理后的目标对象）为键，缓存启动时解析好的主题、分组及本地消息生产者，
+ * 供BaseProducerAspect和BaseTransactionProducerAspect在发送时直接查找，避免每次发送都反射取属性。
+ *
+ * @author qyf
+ * @Date 2019/8/5
+ */
+@Component
+public class ProducerRouteCache {
+
+    /**
+     * 生产者实例 -> 消息实体（ProducerBean未重写equals/hashCode，按实例区分）
+     */
+    private final Map<Object, MqEntity> routeMap = new ConcurrentHashMap<>();
+
+    /**
+     * 登记生产者实例的路由信息。
+     *
+     * @param target   生产者目标实例
+     * @param mqEntity 已解析的消息实体
+     */
+    public void put(Object target, MqEntity mqEntity) {
+        this.routeMap.put(target, mqEntity);
+    }
+
+    /**
+     * 取得生产者实例的路由信息，未登记时返回null。
+     *
+     * @param target 生产者目标实例
+     * @return
+     */
+    public MqEntity get(Object target) {
+        return this.routeMap.get(target);
+    }
+}
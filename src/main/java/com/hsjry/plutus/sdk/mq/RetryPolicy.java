@@ -0,0 +1,117 @@
+package com.hsjry.plutus.sdk.mq;
+
+import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个订阅的消费重试策略：按重试次数取重新投递的延时级别，重试次数用尽后转入本地死信，并统计重试情况。
+ *
+ * @author qyf
+ * @Date 2019/8/30
+ */
+public class RetryPolicy {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final String group;
+
+    /** 第n次重试的延时级别，为空时由broker按默认级别重试 */
+    private final int[] delayLevels;
+
+    /** 最大重试次数 */
+    private final int maxReconsumeTimes;
+
+    /** 本地死信，为null时由broker转入死信队列 */
+    private final DeadLetterSink deadLetterSink;
+
+    /** 重新投递的条数 */
+    private final LongAdder reconsumed;
+
+    /** 重试后消费成功的条数 */
+    private final LongAdder recovered;
+
+    /** 重试后消费成功的消息从发送到成功的毫秒数合计 */
+    private final LongAdder retryMillis;
+
+    /** 消费失败稍后重试的次数 */
+    private final LongAdder failures;
+
+    /** 转入本地死信的条数 */
+    private final LongAdder deadLetters;
+
+    RetryPolicy(String group, int[] delayLevels, int maxReconsumeTimes, DeadLetterSink deadLetterSink,
+                LongAdder reconsumed, LongAdder recovered, LongAdder retryMillis, LongAdder failures,
+                LongAdder deadLetters) {
+        this.group = group;
+        this.delayLevels = delayLevels;
+        this.maxReconsumeTimes = maxReconsumeTimes;
+        this.deadLetterSink = deadLetterSink;
+        this.reconsumed = reconsumed;
+        this.recovered = recovered;
+        this.retryMillis = retryMillis;
+        this.failures = failures;
+        this.deadLetters = deadLetters;
+    }
+
+    /**
+     * 记录投递给消费监听的消息。
+     *
+     * @param msg
+     */
+    public void onDelivered(MessageExt msg) {
+        if (msg.getReconsumeTimes() > 0) {
+            reconsumed.increment();
+        }
+    }
+
+    /**
+     * 记录消费成功的消息。
+     *
+     * @param msg
+     */
+    public void onConsumed(MessageExt msg) {
+        if (msg.getReconsumeTimes() > 0) {
+            recovered.increment();
+            retryMillis.add(Math.max(System.currentTimeMillis() - msg.getBornTimestamp(), 0));
+        }
+    }
+
+    /**
+     * 消费失败的消息重试次数已用尽时转入本地死信。
+     *
+     * @param msg
+     * @return 是否已转入本地死信（视为已消费）
+     */
+    public boolean deadLetter(MessageExt msg) {
+        if (deadLetterSink == null || msg.getReconsumeTimes() < maxReconsumeTimes) {
+            return false;
+        }
+        try {
+            deadLetterSink.accept(group, msg);
+        } catch (Throwable e) {
+            // 写本地死信失败时仍由rocketMq重试
+            logger.error("消息转入本地死信失败：{},{},msgId:{}，e:{}", group, msg.getTopic(), msg.getMsgId(), e);
+            return false;
+        }
+        deadLetters.increment();
+        logger.warn("消息重试{}次后仍消费失败，已转入本地死信：{},{},msgId:{}", msg.getReconsumeTimes(), group,
+                msg.getTopic(), msg.getMsgId());
+        return true;
+    }
+
+    /**
+     * 消费失败稍后重试，按第一条失败消息的重试次数设置重新投递的延时级别。
+     *
+     * @param msg
+     * @param context
+     */
+    public void onRetry(MessageExt msg, ConsumeConcurrentlyContext context) {
+        failures.increment();
+        if (delayLevels.length > 0) {
+            context.setDelayLevelWhenNextConsume(delayLevels[Math.min(msg.getReconsumeTimes(), delayLevels.length - 1)]);
+        }
+    }
+}
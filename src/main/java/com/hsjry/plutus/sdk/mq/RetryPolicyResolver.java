@@ -0,0 +1,86 @@
+package com.hsjry.plutus.sdk.mq;
+
+import com.aliyun.openservices.ons.api.PropertyKeyConst;
+import com.hsjry.plutus.sdk.component.EnvComponent;
+import com.hsjry.plutus.sdk.component.MqMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.File;
+
+/**
+ * 解析订阅的消费重试策略。
+ * ConsumerBean属性RetryDelayLevels配置第1、2...次重试的延时（如：5s 30s 1m 5m，次数超过配置时取最后一个），
+ * 可按订阅配置：主题.RetryDelayLevels；最大重试次数取MaxReconsumeTimes（默认16）。
+ *
+ * @author qyf
+ * @Date 2019/8/30
+ */
+@Component
+public class RetryPolicyResolver {
+
+    /** ConsumerBean属性：重试延时 */
+    public static final String RETRY_DELAY_LEVELS = "RetryDelayLevels";
+
+    /** rocketMq默认的最大重试次数 */
+    private static final int DEFAULT_MAX_RECONSUME_TIMES = 16;
+
+    @Autowired
+    private EnvComponent envComponent;
+
+    @Autowired
+    private MqMetrics mqMetrics;
+
+    @Autowired
+    private DelayScheduler delayScheduler;
+
+    /** 应用自定义的本地死信 */
+    @Autowired(required = false)
+    private DeadLetterSink customSink;
+
+    /** 所有订阅共用的本地死信 */
+    private DeadLetterSink deadLetterSink;
+
+    /**
+     * 解析订阅的重试策略并登记指标。
+     *
+     * @param entity
+     * @return
+     */
+    public RetryPolicy resolve(SubscriptionEntity entity) {
+        String levels = entity.getProperties().getProperty(entity.getSubscription().getTopic() + "." + RETRY_DELAY_LEVELS,
+                entity.getProperties().getProperty(RETRY_DELAY_LEVELS));
+        int[] delayLevels = new int[0];
+        if (StringUtils.hasText(levels)) {
+            // 重试延时换算为线下的延时级别
+            long[] delayMillis = DelayScheduler.parseLevels(levels);
+            delayLevels = new int[delayMillis.length];
+            for (int i = 0; i < delayMillis.length; i++) {
+                delayLevels[i] = delayScheduler.nearestLevel(delayMillis[i]);
+            }
+        }
+        Integer maxReconsumeTimes = Consumer.getIntProperty(entity.getProperties(), entity.getSubscription(),
+                PropertyKeyConst.MaxReconsumeTimes);
+        String topic = entity.getTopic();
+        return new RetryPolicy(entity.getGroup(), delayLevels,
+                maxReconsumeTimes == null ? DEFAULT_MAX_RECONSUME_TIMES : maxReconsumeTimes,
+                this.getDeadLetterSink(),
+                mqMetrics.counter("retry." + topic + ".reconsumed"),
+                mqMetrics.counter("retry." + topic + ".recovered"),
+                mqMetrics.counter("retry." + topic + ".retryMillis"),
+                mqMetrics.counter("retry." + topic + ".failures"),
+                mqMetrics.counter("dlq." + topic + ".messages"));
+    }
+
+    private synchronized DeadLetterSink getDeadLetterSink() {
+        if (deadLetterSink == null) {
+            if (customSink != null) {
+                deadLetterSink = customSink;
+            } else if (StringUtils.hasText(envComponent.getDlqDir())) {
+                deadLetterSink = new FileDeadLetterSink(new File(envComponent.getDlqDir()));
+            }
+        }
+        return deadLetterSink;
+    }
+}
@@ -0,0 +1,82 @@
+package com.hsjry.plutus.sdk.mq;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 生产者的发送限制：生产者级和主题级令牌桶限速，以及自适应并发限制，未配置的部分不生效。
+ * 限速在发送方调用时生效，并发限制在实际发往broker时生效（同步和异步发送都阻塞等待）。
+ *
+ * @author qyf
+ * @Date 2019/8/27
+ */
+public class SendLimiter {
+
+    /** 不做任何限制 */
+    static final SendLimiter NONE = new SendLimiter(null, null, null, new LongAdder());
+
+    /** 生产者级令牌桶 */
+    private final TokenBucket producerBucket;
+
+    /** 主题级令牌桶（同一主题的生产者共用） */
+    private final TokenBucket topicBucket;
+
+    /** 自适应并发限制 */
+    private final AimdLimiter concurrency;
+
+    /** 限速等待的毫秒数合计 */
+    private final LongAdder throttledMillis;
+
+    SendLimiter(TokenBucket producerBucket, TokenBucket topicBucket, AimdLimiter concurrency, LongAdder throttledMillis) {
+        this.producerBucket = producerBucket;
+        this.topicBucket = topicBucket;
+        this.concurrency = concurrency;
+        this.throttledMillis = throttledMillis;
+    }
+
+    /**
+     * 按条数取得发送令牌，超过速率时阻塞等待。
+     *
+     * @param permits
+     */
+    public void acquireRate(int permits) {
+        long waitNanos = 0;
+        if (producerBucket != null) {
+            waitNanos += producerBucket.acquire(permits);
+        }
+        if (topicBucket != null) {
+            waitNanos += topicBucket.acquire(permits);
+        }
+        if (waitNanos > 0) {
+            throttledMillis.add(waitNanos / 1000000);
+        }
+    }
+
+    /**
+     * 取得并发名额，在途数达到上限时阻塞等待。
+     *
+     * @return 开始时间，归还时传入
+     */
+    public long acquireConcurrency() {
+        if (concurrency != null) {
+            try {
+                concurrency.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * 归还并发名额。
+     *
+     * @param start  acquireConcurrency的返回值
+     * @param failed 是否发送失败
+     */
+    public void releaseConcurrency(long start, boolean failed) {
+        if (concurrency != null) {
+            concurrency.release(System.currentTimeMillis() - start, failed);
+        }
+    }
+}
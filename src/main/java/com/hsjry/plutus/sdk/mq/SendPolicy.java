@@ -0,0 +1,328 @@
+package com.hsjry.plutus.sdk.mq;
+
+import org.apache.rocketmq.client.exception.MQBrokerException;
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.client.impl.producer.DefaultMQProducerImpl;
+import org.apache.rocketmq.client.impl.producer.TopicPublishInfo;
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.client.producer.SendCallback;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageAccessor;
+import org.apache.rocketmq.common.message.MessageClientIDSetter;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.apache.rocketmq.remoting.exception.RemotingException;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个主题的发送策略，创建生产者时解析一次，发送时直接使用。
+ * 同步发送失败后按指数退避（全抖动）重试，重试次数和总耗时都有上限；rocketMq自身的同步重试已关闭，
+ * 重试时由sendLatencyFaultEnable避开刚失败的broker。
+ * 开启对冲发送后，发送超过最近p99耗时仍未返回时，向另一个broker的队列再发一份，取先成功的结果；
+ * 两份消息的msgId相同，消费端可据此去重。
+ * 对冲发送指定了队列，rocketMq不会为其规避故障broker，因此由本类按生产者的故障规避策略选择队列并回报耗时，
+ * 重试时避开上次失败的broker，对冲时避开首次发送的broker。
+ *
+ * @author qyf
+ * @Date 2019/8/26
+ */
+public class SendPolicy {
+
+    /** 最大发送次数（含首次） */
+    private final int attempts;
+
+    /** 首次重试的退避毫秒数 */
+    private final long backoffMs;
+
+    /** 最大退避毫秒数 */
+    private final long maxBackoffMs;
+
+    /** 发送总耗时上限（毫秒） */
+    private final long deadlineMs;
+
+    /** 是否对冲发送 */
+    private final boolean hedge;
+
+    /** 对冲发送的最小等待毫秒数 */
+    private final long hedgeMinDelayMs;
+
+    /** 首次发送耗时 */
+    private final LatencyTracker latency;
+
+    private final LongAdder retries;
+
+    private final LongAdder failures;
+
+    private final LongAdder hedged;
+
+    private final LongAdder hedgeWins;
+
+    /** 每次发往broker时占用的并发名额 */
+    private final SendLimiter limiter;
+
+    SendPolicy(int attempts, long backoffMs, long maxBackoffMs, long deadlineMs, boolean hedge, long hedgeMinDelayMs,
+               LatencyTracker latency, LongAdder retries, LongAdder failures, LongAdder hedged, LongAdder hedgeWins,
+               SendLimiter limiter) {
+        this.attempts = Math.max(attempts, 1);
+        this.backoffMs = backoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.deadlineMs = deadlineMs;
+        this.hedge = hedge;
+        this.hedgeMinDelayMs = hedgeMinDelayMs;
+        this.latency = latency;
+        this.retries = retries;
+        this.failures = failures;
+        this.hedged = hedged;
+        this.hedgeWins = hedgeWins;
+        this.limiter = limiter;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * 同步发送一条消息，开启对冲时对冲发送。
+     *
+     * @param producer
+     * @param message
+     * @return
+     * @throws Exception
+     */
+    public SendResult send(DefaultMQProducer producer, Message message) throws Exception {
+        if (hedge) {
+            AtomicReference<MessageQueue> lastFailed = new AtomicReference<>();
+            return this.execute(producer.getSendMsgTimeout(),
+                    timeout -> this.hedgedSend(producer, message, timeout, lastFailed));
+        }
+        return this.execute(producer.getSendMsgTimeout(), timeout -> {
+            long start = System.currentTimeMillis();
+            SendResult sendResult = producer.send(message, timeout);
+            latency.record(System.currentTimeMillis() - start);
+            return sendResult;
+        });
+    }
+
+    /**
+     * 按策略执行一次发送，失败时退避重试。
+     *
+     * @param sendTimeoutMs 单次发送超时
+     * @param call          发送，参数为本次发送可用的超时毫秒数
+     * @return
+     * @throws Exception 重试次数用尽、超过总耗时或不可重试的异常
+     */
+    public <T> T execute(long sendTimeoutMs, SendCall<T> call) throws Exception {
+        long deadline = System.currentTimeMillis() + deadlineMs;
+        for (int attempt = 1; ; attempt++) {
+            long remaining = Math.max(deadline - System.currentTimeMillis(), 1);
+            // 每次发送占用一个并发名额，退避等待时不占用
+            long start = limiter.acquireConcurrency();
+            boolean failed = true;
+            try {
+                T result = call.send(Math.min(sendTimeoutMs, remaining));
+                failed = false;
+                return result;
+            } catch (Exception e) {
+                limiter.releaseConcurrency(start, true);
+                start = -1;
+                long backoff = this.backoff(attempt);
+                if (attempt >= attempts || !retryable(e) || System.currentTimeMillis() + backoff >= deadline) {
+                    failures.increment();
+                    throw e;
+                }
+                retries.increment();
+                Thread.sleep(backoff);
+            } finally {
+                if (start >= 0) {
+                    limiter.releaseConcurrency(start, failed);
+                }
+            }
+        }
+    }
+
+    /**
+     * 对冲发送：首次发送超过p99未返回时向另一个broker再发一份。
+     *
+     * @param lastFailed 本条消息上次发送失败的队列，重试时避开其broker
+     */
+    private SendResult hedgedSend(DefaultMQProducer producer, Message message, long timeout,
+                                  AtomicReference<MessageQueue> lastFailed) throws Exception {
+        // 两份消息使用同一个msgId
+        MessageClientIDSetter.setUniqID(message);
+        AtomicReference<MessageQueue> primaryQueue = new AtomicReference<>();
+        CompletableFuture<SendResult> primary = new CompletableFuture<>();
+        long start = System.currentTimeMillis();
+        producer.send(message, (mqs, msg, arg) -> {
+            MessageQueue queue = selectQueue(producer, mqs, msg, lastFailed.get());
+            primaryQueue.set(queue);
+            return queue;
+        }, null, callback(primary), timeout);
+        primary.whenComplete((sendResult, e) -> {
+            if (e == null) {
+                latency.record(System.currentTimeMillis() - start);
+            }
+            updateFault(producer, primaryQueue.get(), start, e, lastFailed);
+        });
+
+        long hedgeDelay = Math.min(Math.max(hedgeMinDelayMs, latency.getP99()), timeout);
+        try {
+            return primary.get(hedgeDelay, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // 继续对冲发送
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+
+        hedged.increment();
+        AtomicReference<MessageQueue> secondaryQueue = new AtomicReference<>();
+        CompletableFuture<SendResult> secondary = new CompletableFuture<>();
+        long hedgeStart = System.currentTimeMillis();
+        producer.send(copy(message), (mqs, msg, arg) -> {
+            MessageQueue queue = selectQueue(producer, mqs, msg, primaryQueue.get());
+            secondaryQueue.set(queue);
+            return queue;
+        }, null, callback(secondary), Math.max(timeout - hedgeDelay, 1));
+        secondary.whenComplete((sendResult, e) -> updateFault(producer, secondaryQueue.get(), hedgeStart, e, lastFailed));
+
+        // 取先成功的结果，两份都失败时抛出后一个异常
+        CompletableFuture<SendResult> first = new CompletableFuture<>();
+        AtomicInteger failed = new AtomicInteger();
+        for (CompletableFuture<SendResult> future : Arrays.asList(primary, secondary)) {
+            future.whenComplete((sendResult, e) -> {
+                if (e == null) {
+                    first.complete(sendResult);
+                } else if (failed.incrementAndGet() == 2) {
+                    first.completeExceptionally(e);
+                }
+            });
+        }
+        try {
+            SendResult sendResult = first.get(Math.max(timeout - hedgeDelay, 1), TimeUnit.MILLISECONDS);
+            if (!primary.isDone() || primary.isCompletedExceptionally()) {
+                hedgeWins.increment();
+            }
+            return sendResult;
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * 按生产者的故障规避策略选择队列并避开exclude所在的broker；路由未缓存或选中了要避开的broker时，
+     * 随机选择其他broker的队列。
+     */
+    private static MessageQueue selectQueue(DefaultMQProducer producer, List<MessageQueue> mqs, Message msg,
+                                            MessageQueue exclude) {
+        DefaultMQProducerImpl producerImpl = producer.getDefaultMQProducerImpl();
+        TopicPublishInfo publishInfo = producerImpl.getTopicPublishInfoTable().get(msg.getTopic());
+        if (publishInfo != null && publishInfo.ok()) {
+            MessageQueue queue = producerImpl.selectOneMessageQueue(publishInfo,
+                    exclude == null ? null : exclude.getBrokerName());
+            if (queue != null && mqs.contains(queue)
+                    && (exclude == null || !queue.getBrokerName().equals(exclude.getBrokerName()))) {
+                return queue;
+            }
+        }
+        return otherQueue(mqs, exclude);
+    }
+
+    /**
+     * 向生产者回报本次发送的耗时，供sendLatencyFaultEnable规避故障broker，和rocketMq自身的发送一致：失败时隔离该broker。
+     * 失败时记下队列，重试时避开。
+     */
+    private static void updateFault(DefaultMQProducer producer, MessageQueue queue, long start, Throwable e,
+                                    AtomicReference<MessageQueue> lastFailed) {
+        if (queue == null) {
+            return;
+        }
+        producer.getDefaultMQProducerImpl().updateFaultItem(queue.getBrokerName(),
+                System.currentTimeMillis() - start, e != null);
+        if (e != null) {
+            lastFailed.set(queue);
+        }
+    }
+
+    /**
+     * 选择与primary不同broker的队列，只有一个broker时选择不同的队列。
+     */
+    private static MessageQueue otherQueue(List<MessageQueue> mqs, MessageQueue primary) {
+        int start = ThreadLocalRandom.current().nextInt(mqs.size());
+        MessageQueue fallback = null;
+        for (int i = 0; i < mqs.size(); i++) {
+            MessageQueue queue = mqs.get((start + i) % mqs.size());
+            if (primary == null || !queue.getBrokerName().equals(primary.getBrokerName())) {
+                return queue;
+            }
+            if (fallback == null && !queue.equals(primary)) {
+                fallback = queue;
+            }
+        }
+        return fallback != null ? fallback : mqs.get(start);
+    }
+
+    /**
+     * 指数退避，在[0, min(最大退避, 首次退避 * 2^(次数-1))]内随机。
+     */
+    private long backoff(int attempt) {
+        long ceiling = Math.min(maxBackoffMs, backoffMs << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * 可重试的异常：客户端（无可用路由、超时等）、通信及broker异常。
+     */
+    private static boolean retryable(Exception e) {
+        return e instanceof MQClientException || e instanceof RemotingException || e instanceof MQBrokerException
+                || e instanceof TimeoutException;
+    }
+
+    private static Exception unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        return cause instanceof Exception ? (Exception) cause : e;
+    }
+
+    private static SendCallback callback(CompletableFuture<SendResult> future) {
+        return new SendCallback() {
+            @Override
+            public void onSuccess(SendResult sendResult) {
+                future.complete(sendResult);
+            }
+
+            @Override
+            public void onException(Throwable e) {
+                future.completeExceptionally(e);
+            }
+        };
+    }
+
+    /**
+     * 复制消息用于对冲发送，避免两次发送同时修改同一消息的属性。
+     */
+    private static Message copy(Message message) {
+        Message copy = new Message();
+        copy.setTopic(message.getTopic());
+        copy.setFlag(message.getFlag());
+        copy.setBody(message.getBody());
+        MessageAccessor.setProperties(copy, new HashMap<>(message.getProperties()));
+        return copy;
+    }
+
+    /**
+     * 一次发送。
+     */
+    @FunctionalInterface
+    public interface SendCall<T> {
+        T send(long timeoutMs) throws Exception;
+    }
+}
@@ -0,0 +1,59 @@
+package com.hsjry.plutus.sdk.mq;
+
+import com.hsjry.plutus.sdk.component.EnvComponent;
+import com.hsjry.plutus.sdk.component.MqMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * 解析主题的发送策略。
+ * 全局配置为mq.send.retry.*、mq.send.hedge.*，单个主题可用mq.send.topic.<主题>.<配置名>覆盖，
+ * 如：mq.send.topic.SDHS_MSG_NOTICE_TOPIC.hedge=true。
+ *
+ * @author qyf
+ * @Date 2019/8/26
+ */
+@Component
+public class SendPolicyResolver {
+
+    @Autowired
+    private EnvComponent envComponent;
+
+    @Autowired
+    private MqMetrics mqMetrics;
+
+    /**
+     * 解析主题的发送策略并登记指标。
+     *
+     * @param topic       阿里云的主题，用于读取配置
+     * @param rocketTopic 线下rocketMq的主题，用于指标名
+     * @param limiter     该生产者的发送限制
+     * @return
+     */
+    public SendPolicy resolve(String topic, String rocketTopic, SendLimiter limiter) {
+        LatencyTracker latency = new LatencyTracker();
+        mqMetrics.gauge("send." + rocketTopic + ".p99Ms", latency::getP99);
+        String prefix = "send." + rocketTopic + ".";
+        return new SendPolicy(
+                Integer.parseInt(this.get(topic, "attempts", "mq.send.retry.attempts", "3")),
+                Long.parseLong(this.get(topic, "backoffMs", "mq.send.retry.backoffMs", "100")),
+                Long.parseLong(this.get(topic, "maxBackoffMs", "mq.send.retry.maxBackoffMs", "2000")),
+                Long.parseLong(this.get(topic, "deadlineMs", "mq.send.retry.deadlineMs", "10000")),
+                Boolean.parseBoolean(this.get(topic, "hedge", "mq.send.hedge.enabled", "false")),
+                Long.parseLong(this.get(topic, "hedgeMinDelayMs", "mq.send.hedge.minDelayMs", "20")),
+                latency,
+                mqMetrics.counter(prefix + "retries"),
+                mqMetrics.counter(prefix + "failures"),
+                mqMetrics.counter("hedge." + rocketTopic + ".fired"),
+                mqMetrics.counter("hedge." + rocketTopic + ".won"),
+                limiter);
+    }
+
+    /**
+     * 主题级配置优先于全局配置。
+     */
+    private String get(String topic, String name, String globalKey, String defaultValue) {
+        return envComponent.getProperty("mq.send.topic." + topic + "." + name,
+                envComponent.getProperty(globalKey, defaultValue));
+    }
+}
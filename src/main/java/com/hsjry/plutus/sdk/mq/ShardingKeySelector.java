@@ -0,0 +1,29 @@
+package com.hsjry.plutus.sdk.mq;
+
+import org.apache.rocketmq.client.producer.MessageQueueSelector;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageQueue;
+
+import java.util.List;
+
+/**
+ * 顺序消息的队列选择：按分区键哈希选择消息队列，同一分区键的消息总是发往同一队列。
+ *
+ * @author qyf
+ * @Date 2019/8/20
+ */
+public final class ShardingKeySelector implements MessageQueueSelector {
+
+    public static final ShardingKeySelector INSTANCE = new ShardingKeySelector();
+
+    /** 记录分区键的用户属性，消费时作为阿里云sdk消息的分区键 */
+    public static final String PROPERTY_SHARDING_KEY = "PLUTUS_SHARDING_KEY";
+
+    private ShardingKeySelector() {
+    }
+
+    @Override
+    public MessageQueue select(List<MessageQueue> mqs, Message msg, Object shardingKey) {
+        return mqs.get((shardingKey.hashCode() & Integer.MAX_VALUE) % mqs.size());
+    }
+}
@@ -0,0 +1,61 @@
+package com.hsjry.plutus.sdk.mq;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 消息客户端启动报告，记录每个生产者、消费者的启动耗时及结果。
+ *
+ * @author qyf
+ * @Date 2019/8/13
+ */
+@Component
+public class StartupReport {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final List<ClientStartRecord> records = new CopyOnWriteArrayList<>();
+
+    /**
+     * 记录一次启动。
+     *
+     * @param clientType
+     * @param name
+     * @param costMillis
+     * @param error      启动异常，成功时为null
+     */
+    public void record(String clientType, String name, long costMillis, Throwable error) {
+        ClientStartRecord record = new ClientStartRecord();
+        record.setClientType(clientType);
+        record.setName(name);
+        record.setCostMillis(costMillis);
+        record.setSuccess(error == null);
+        record.setMessage(error == null ? null : error.getMessage());
+        records.add(record);
+        logger.info("消息客户端启动{}：类型：{}，分组：{}，耗时：{}ms", error == null ? "成功" : "失败", clientType, name, costMillis);
+    }
+
+    /**
+     * 取得所有启动记录。
+     *
+     * @return
+     */
+    public List<ClientStartRecord> getRecords() {
+        return new ArrayList<>(records);
+    }
+
+    /**
+     * 取得某类客户端启动耗时之和（毫秒）。
+     *
+     * @param clientType
+     * @return
+     */
+    public long getTotalCostMillis(String clientType) {
+        return records.stream().filter(record -> record.getClientType().equals(clientType))
+                .mapToLong(ClientStartRecord::getCostMillis).sum();
+    }
+}
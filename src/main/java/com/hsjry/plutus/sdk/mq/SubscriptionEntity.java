@@ -0,0 +1,53 @@
+package com.hsjry.plutus.sdk.mq;
+
+import com.aliyun.openservices.ons.api.MessageListener;
+import com.aliyun.openservices.ons.api.bean.Subscription;
+import com.aliyun.openservices.ons.api.order.MessageOrderListener;
+import com.hsjry.plutus.sdk.dedup.IdempotentFilter;
+import lombok.Data;
+
+import java.util.Properties;
+
+/**
+ * 封装消费订阅实体。
+ * @author qyf
+ * @Date 2019/8/9
+ */
+@Data
+public class SubscriptionEntity {
+    /** 阿里云sdk的订阅 */
+    private Subscription subscription;
+
+    /** 所属ConsumerBean或OrderConsumerBean */
+    private Object consumerBean;
+
+    /** 所属ConsumerBean的属性 */
+    private Properties properties;
+
+    /** 阿里云sdk的消费监听 */
+    private MessageListener messageListener;
+
+    /** 阿里云sdk的顺序消费监听，顺序订阅时不为空 */
+    private MessageOrderListener orderListener;
+
+    /** 消费分组 */
+    private String group;
+
+    /** 线下rocketMq的主题（环境前缀_主题） */
+    private String topic;
+
+    /** 该订阅的消费去重 */
+    private IdempotentFilter idempotentFilter;
+
+    /** 该订阅的消费重试策略 */
+    private RetryPolicy retryPolicy;
+
+    /**
+     * 是否顺序订阅。
+     *
+     * @return
+     */
+    public boolean isOrderly() {
+        return orderListener != null;
+    }
+}
@@ -0,0 +1,183 @@
+package com.hsjry.plutus.sdk.mq;
+
+import com.aliyun.openservices.ons.api.ExpressionType;
+import com.aliyun.openservices.ons.api.bean.Subscription;
+import com.hsjry.plutus.sdk.component.MqMetrics;
+import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.client.consumer.MessageSelector;
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.common.message.MessageExt;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 订阅过滤。
+ * 把订阅的表达式（tag列表或SQL92）交给broker过滤，并估算每个订阅被过滤掉的消息数（filtered）：
+ * broker按tag哈希过滤后，rocketMq客户端在拉取结果中再按tag丢弃不匹配的消息，两者都表现为队列位点的空洞，
+ * 因此按到达监听的位点（去掉重复投递）的空洞估算服务端和客户端合计的过滤数，再加上监听前仍不匹配而丢弃的消息。
+ *
+ * @author qyf
+ * @Date 2019/8/12
+ */
+public class SubscriptionFilter {
+
+    /** 订阅全部tag */
+    private static final String ALL_TAGS = "*";
+
+    /** 订阅的tag集合，订阅全部tag或SQL92过滤时为null */
+    private final Set<String> tags;
+
+    /** 投递给监听的消息数 */
+    private final LongAdder delivered;
+
+    /** 到达监听后tag仍不匹配而丢弃的消息数 */
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * 消息队列 -> 位点区间
+     */
+    private final Map<String, QueueOffsetRange> offsetRangeMap = new ConcurrentHashMap<>();
+
+    public SubscriptionFilter(SubscriptionEntity entity, MqMetrics metrics) {
+        Subscription subscription = entity.getSubscription();
+        this.tags = isSql92(subscription) ? null : parseTags(subscription.getExpression());
+        String prefix = "consumer." + entity.getTopic() + ".";
+        this.delivered = metrics.counter(prefix + "delivered");
+        metrics.gauge(prefix + "filtered", this::getFiltered);
+    }
+
+    /**
+     * 按订阅表达式订阅主题，SQL92需要broker开启enablePropertyFilter。
+     *
+     * @param consumer
+     * @param entity
+     * @throws MQClientException
+     */
+    public static void subscribe(DefaultMQPushConsumer consumer, SubscriptionEntity entity) throws MQClientException {
+        Subscription subscription = entity.getSubscription();
+        String expression = subscription.getExpression();
+        if (isSql92(subscription)) {
+            consumer.subscribe(entity.getTopic(), MessageSelector.bySql(expression));
+            return;
+        }
+        consumer.subscribe(entity.getTopic(), expression == null || expression.trim().isEmpty() ? ALL_TAGS : expression);
+    }
+
+    /**
+     * 记录一批消息的队列位点，用于估算过滤数（一批消息总是来自同一个消息队列）。
+     *
+     * @param msgs
+     */
+    public void recordOffsets(List<MessageExt> msgs) {
+        MessageExt first = msgs.get(0);
+        // 重试消息来自重试队列，位点与原队列无关
+        if (first.getReconsumeTimes() > 0) {
+            return;
+        }
+        String queueKey = first.getStoreHost() + ":" + first.getQueueId();
+        QueueOffsetRange range = offsetRangeMap.get(queueKey);
+        if (range == null) {
+            range = offsetRangeMap.computeIfAbsent(queueKey, key -> new QueueOffsetRange(first.getQueueOffset()));
+        }
+        for (MessageExt msg : msgs) {
+            range.update(msg.getQueueOffset());
+        }
+    }
+
+    /**
+     * 判断消息的tag是否匹配本订阅，不匹配的计入过滤数（rocketMq客户端已按tag过滤，正常不会发生）。
+     *
+     * @param msg
+     * @return
+     */
+    public boolean accept(MessageExt msg) {
+        if (tags != null && !tags.contains(msg.getTags())) {
+            rejected.increment();
+            return false;
+        }
+        delivered.increment();
+        return true;
+    }
+
+    /**
+     * 估算过滤掉的消息数（服务端和客户端合计）：各队列已到达的位点区间长度之和减去到达的不同位点数，
+     * 再加上到达监听后丢弃的消息数。
+     *
+     * @return
+     */
+    public long getFiltered() {
+        long total = rejected.sum();
+        for (QueueOffsetRange range : offsetRangeMap.values()) {
+            total += range.getFiltered();
+        }
+        return total;
+    }
+
+    private static boolean isSql92(Subscription subscription) {
+        return ExpressionType.SQL92.name().equalsIgnoreCase(subscription.getType());
+    }
+
+    /**
+     * 解析tag表达式，如：TagA || TagB。
+     */
+    private static Set<String> parseTags(String expression) {
+        if (expression == null || expression.trim().isEmpty() || ALL_TAGS.equals(expression.trim())) {
+            return null;
+        }
+        Set<String> tagSet = new HashSet<>();
+        for (String tag : expression.split("\\|\\|")) {
+            if (!tag.trim().isEmpty()) {
+                tagSet.add(tag.trim());
+            }
+        }
+        return tagSet;
+    }
+
+    /**
+     * 单个消息队列已到达消息的位点区间。
+     * 重新负载均衡后会重复投递已到达的位点，最近的位点记在环形数组中去重，早于环形数组范围的位点视为重复投递。
+     */
+    private static final class QueueOffsetRange {
+        /** 去重的位点数（2的幂） */
+        private static final int RECENT = 8192;
+
+        private final long[] recent = new long[RECENT];
+        private long minOffset;
+        private long maxOffset;
+        private long received;
+
+        QueueOffsetRange(long offset) {
+            this.minOffset = offset;
+            this.maxOffset = offset;
+            Arrays.fill(recent, -1);
+        }
+
+        synchronized void update(long offset) {
+            if (offset <= maxOffset - RECENT) {
+                return;
+            }
+            int index = (int) (offset & (RECENT - 1));
+            if (recent[index] == offset) {
+                return;
+            }
+            recent[index] = offset;
+            if (offset > maxOffset) {
+                maxOffset = offset;
+            }
+            if (offset < minOffset) {
+                minOffset = offset;
+            }
+            received++;
+        }
+
+        synchronized long getFiltered() {
+            return Math.max(0, maxOffset - minOffset + 1 - received);
+        }
+    }
+}
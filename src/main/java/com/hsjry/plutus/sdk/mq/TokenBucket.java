@@ -0,0 +1,53 @@
+package com.hsjry.plutus.sdk.mq;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 令牌桶限速。
+ * 令牌不足时预支令牌并阻塞到令牌补足，后到的调用方顺延等待，发送方被限速而不是超时失败。
+ *
+ * @author qyf
+ * @Date 2019/8/27
+ */
+public class TokenBucket {
+
+    /** 每纳秒补充的令牌数 */
+    private final double permitsPerNano;
+
+    /** 桶容量（允许的突发条数） */
+    private final double burst;
+
+    /** 当前令牌数，预支时为负 */
+    private double tokens;
+
+    /** 上次补充令牌的时间 */
+    private long lastNanos = System.nanoTime();
+
+    public TokenBucket(double permitsPerSecond, double burst) {
+        this.permitsPerNano = permitsPerSecond / 1e9;
+        this.burst = Math.max(burst, 1);
+        this.tokens = this.burst;
+    }
+
+    /**
+     * 取得令牌，不足时阻塞等待。
+     *
+     * @param permits
+     * @return 等待的纳秒数
+     */
+    public long acquire(int permits) {
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - lastNanos) * permitsPerNano);
+            lastNanos = now;
+            tokens -= permits;
+            wait = tokens >= 0 ? 0 : (long) (-tokens / permitsPerNano);
+        }
+        long deadline = System.nanoTime() + wait;
+        for (long remaining = wait; remaining > 0; remaining = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(remaining);
+        }
+        return wait;
+    }
+}
@@ -0,0 +1,44 @@
+package com.hsjry.plutus.sdk.mq;
+
+import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
+import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
+import org.apache.rocketmq.client.consumer.listener.MessageListenerConcurrently;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按主题分派的消费监听。
+ * 同一分组的多个订阅共用一个消费者，一批消息总是来自同一个消息队列（同一主题），按第一条消息的主题分派给对应的监听。
+ *
+ * @author qyf
+ * @Date 2019/8/9
+ */
+public class TopicDispatchListener implements MessageListenerConcurrently {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * 线下rocketMq的主题 -> 消费监听，启动时建好后不再修改
+     */
+    private final Map<String, MessageListenerConcurrently> listenerMap;
+
+    public TopicDispatchListener(Map<String, MessageListenerConcurrently> listenerMap) {
+        this.listenerMap = new HashMap<>(listenerMap);
+    }
+
+    @Override
+    public ConsumeConcurrentlyStatus consumeMessage(List<MessageExt> msgs, ConsumeConcurrentlyContext context) {
+        String topic = msgs.get(0).getTopic();
+        MessageListenerConcurrently listener = listenerMap.get(topic);
+        if (listener == null) {
+            // 未订阅的主题不应出现，直接确认避免反复投递
+            logger.error("没有找到主题的消费监听：{}，消息：{}", topic, msgs);
+            return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+        }
+        return listener.consumeMessage(msgs, context);
+    }
+}
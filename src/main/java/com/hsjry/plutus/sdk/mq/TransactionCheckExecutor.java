@@ -0,0 +1,74 @@
+package com.hsjry.plutus.sdk.mq;
+
+import com.hsjry.plutus.sdk.component.EnvComponent;
+import com.hsjry.plutus.sdk.component.MqMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 事务回查执行器，所有线下事务生产者共用。
+ * 线程数及等待处理的回查请求数有界，请求已满时丢弃新的回查（broker稍后会再次回查），不阻塞通信线程。
+ *
+ * @author qyf
+ * @Date 2019/9/3
+ */
+@Component
+public class TransactionCheckExecutor {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    private EnvComponent envComponent;
+
+    @Autowired
+    private MqMetrics mqMetrics;
+
+    /** 回查线程池 */
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        if (envComponent.isProductEnv()) {
+            return;
+        }
+        int threadMin = envComponent.getTransactionCheckThreadMin();
+        LongAdder rejected = mqMetrics.counter("transaction.check.rejected");
+        this.executor = new ThreadPoolExecutor(threadMin,
+                Math.max(envComponent.getTransactionCheckThreadMax(), threadMin), 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(envComponent.getTransactionCheckRequestHoldMax()),
+                new CustomizableThreadFactory("plutus-mq-txcheck-"),
+                (runnable, pool) -> {
+                    rejected.increment();
+                    logger.warn("事务回查请求已满：{}，丢弃本次回查，等待broker再次回查。", pool.getQueue().size());
+                });
+        mqMetrics.gauge("transaction.check.queueSize", () -> (long) executor.getQueue().size());
+        mqMetrics.gauge("transaction.check.activeThreads", () -> (long) executor.getActiveCount());
+        mqMetrics.gauge("transaction.check.completed", executor::getCompletedTaskCount);
+    }
+
+    /**
+     * 取得回查线程池（设置到线下事务生产者上）。
+     *
+     * @return
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
@@ -1,13 +1,19 @@
 package com.hsjry.plutus.sdk.mq;
 
+import com.aliyun.openservices.ons.api.PropertyKeyConst;
 import com.aliyun.openservices.ons.api.bean.TransactionProducerBean;
 import com.aliyun.openservices.ons.api.transaction.LocalTransactionChecker;
 import com.aliyun.openservices.ons.api.transaction.TransactionStatus;
+import com.hsjry.plutus.sdk.aspect.SendMethodTable;
 import com.hsjry.plutus.sdk.component.EnvComponent;
+import com.hsjry.plutus.sdk.component.MqMetrics;
 import com.hsjry.plutus.sdk.utils.AopTargetUtils;
+import com.hsjry.plutus.sdk.utils.MessageUtils;
 import com.hsjry.plutus.sdk.utils.MqHookerUtils;
+import org.apache.rocketmq.client.exception.MQClientException;
 import org.apache.rocketmq.client.producer.*;
 import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageClientIDSetter;
 import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.remoting.common.RemotingHelper;
 import org.slf4j.Logger;
@@ -18,6 +24,8 @@ import org.springframework.util.CollectionUtils;
 
 import javax.annotation.PostConstruct;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * 初始化事务消息生产者列表。
@@ -28,6 +36,9 @@ import java.util.*;
 public class TransactionProducer {
     Logger logger = LoggerFactory.getLogger(this.getClass());
 
+    /** 启动报告中的客户端类型 */
+    private static final String CLIENT_TYPE = "transactionProducer";
+
     /**
      * 取得所有替换前（阿里云消息sdk）事务生产者beans列表
      */
@@ -35,13 +46,39 @@ public class TransactionProducer {
     private List<? extends TransactionProducerBean> transactionProducerBeanList;
 
     /**
-     * 取得所有替换前（阿里云消息sdk）事务生产者beans列表
+     * 生产者id -> 创建线下事务客户端的生产者实体（同一生产者id的bean共用该客户端）
      */
     private Map<String, MqEntity> mqEntityMap = new HashMap<>();
 
+    /**
+     * 生产者id/线下主题 -> 事务生产者实体，每个bean的主题一个
+     */
+    private Map<String, MqEntity> routeMap = new ConcurrentHashMap<>();
+
     @Autowired
     private EnvComponent envComponent;
 
+    @Autowired
+    private ProducerRouteCache producerRouteCache;
+
+    @Autowired
+    private SendMethodTable sendMethodTable;
+
+    @Autowired
+    private ClientStarter clientStarter;
+
+    @Autowired
+    private ClientSharingStrategy clientSharingStrategy;
+
+    @Autowired
+    private TransactionStateIndex transactionStateIndex;
+
+    @Autowired
+    private TransactionCheckExecutor transactionCheckExecutor;
+
+    @Autowired
+    private MqMetrics mqMetrics;
+
     /**
      * 替换阿里云sdk的消息队列beans为线下的消息对象（开发和测试环境，线上环境不变）。
      */
@@ -60,6 +97,11 @@ public class TransactionProducer {
         logger.info("开发和测试环境的事务消息生产者创建开始.........................");
         transactionProducerBeanList.forEach(producerBean -> this.createProductor(producerBean));
 
+        // 并行启动所有事务生产者
+        Map<String, ClientStarter.StartAction> actions = new LinkedHashMap<>();
+        mqEntityMap.values().forEach(mqEntity -> actions.put(mqEntity.getGroup(), () -> this.startProducer(mqEntity)));
+        clientStarter.startAll(CLIENT_TYPE, actions);
+
         // 注册钩子，以便退出时关闭消息队列
         this.registHooker(this.mqEntityMap);
         logger.info("开发和测试环境的事务消息生产者创建结束。");
@@ -99,55 +141,149 @@ public class TransactionProducer {
         String cid = properties.getProperty("ConsumerId");
         mqEntity.setCid(cid);
         String group = envComponent.getGroup(pid);
+        mqEntity.setGroup(group);
+        // 为了区分不同的环境（TEST1,TEST2,DEV)而不产生干扰
+        mqEntity.setRocketTopic(envComponent.getCurActiveProfile() + "_" + topic);
+        // 首次回查前的秒数，发送时写入消息属性
+        mqEntity.setCheckImmunityTimeInSeconds(properties.getProperty(PropertyKeyConst.CheckImmunityTimeInSeconds));
+        mqEntity.setSubTransactionProducerBean(transactionProducerBean);
+
+        MqEntity existing = mqEntityMap.get(pid);
+        if (existing != null) {
+            // 同一生产者id的多个bean共用一个线下事务客户端，避免重复分组启动失败；主题和回查器仍按各自的bean
+            mqEntity.setTransactionMQProducer(existing.getTransactionMQProducer());
+            this.registerRoute(beiHuiProducer, mqEntity);
+            logger.info("该事务消息的分组已经创建过，共用其客户端：{}，主题：{}", existing.getGroup(), topic);
+            return;
+        }
 
         TransactionMQProducer transactionProducer = new TransactionMQProducer(group);
         transactionProducer.setNamesrvAddr(envComponent.getMqServer());
-        TransactionCheckListener transactionCheckListener=null;
-        transactionProducer.setTransactionCheckListener(new TransactionCheckListener() {
+        // 按共享策略设置客户端实例
+        clientSharingStrategy.configure(transactionProducer, CLIENT_TYPE, group, transactionProducerBean);
+        // 回查在有界的回查线程池中执行
+        transactionProducer.setExecutorService(transactionCheckExecutor.getExecutor());
+        transactionProducer.setTransactionListener(new TransactionListener() {
+            @Override
+            public LocalTransactionState executeLocalTransaction(Message message, Object arg) {
+                return TransactionProducer.this.execute(message, (LocalTransactionArg) arg);
+            }
+
             @Override
-            public LocalTransactionState checkLocalTransactionState(MessageExt messageExt) {
-
-                LocalTransactionChecker localTransactionChecker=transactionProducerBean.getLocalTransactionChecker();
-
-                com.aliyun.openservices.ons.api.Message messageOns=new com.aliyun.openservices.ons.api.Message();
-                messageOns.setBody(messageExt.getBody());
-                TransactionStatus transactionStatus=localTransactionChecker.check(messageOns);
-                LocalTransactionState localTransactionState;
-                switch (transactionStatus) {
-                    case CommitTransaction:
-                        localTransactionState=LocalTransactionState.COMMIT_MESSAGE;
-                        break;
-                    case RollbackTransaction :
-                        localTransactionState=LocalTransactionState.ROLLBACK_MESSAGE;
-                        break;
-                    default :
-                        localTransactionState=LocalTransactionState.UNKNOW;
-                }
-                return localTransactionState;
+            public LocalTransactionState checkLocalTransaction(MessageExt messageExt) {
+                // 客户端按生产者id共用，回查按消息主题找到所属bean的回查器
+                MqEntity route = TransactionProducer.this.getMqProductorInfo(pid, messageExt.getTopic());
+                return TransactionProducer.this.check(route != null ? route : mqEntity, messageExt);
             }
         });
 
         // 保持目标实例和新的消息生产者
         mqEntity.setTransactionMQProducer(transactionProducer);
-        mqEntity.setSubTransactionProducerBean(transactionProducerBean);
-
-        try {
-            transactionProducer.start();
-        } catch (Exception e) {
-            logger.info("该事务消息的分组已经创建过，无需再建：{}----->{}", group, e.getMessage());
-        }
 
         mqEntityMap.put(pid, mqEntity);
+        this.registerRoute(beiHuiProducer, mqEntity);
         logger.info("创建事务主题：{},分组:{}的生产者。", topic, group);
     }
 
     /**
-     * 取得线下rockmq所有的消息发送者实体。
+     * 登记事务生产者bean的路由。
+     *
+     * @param beiHuiProducer 目标实例
+     * @param mqEntity
+     */
+    private void registerRoute(Object beiHuiProducer, MqEntity mqEntity) {
+        routeMap.put(routeKey(mqEntity.getPid(), mqEntity.getRocketTopic()), mqEntity);
+        // 以目标实例登记路由，发送时由切面直接查找
+        producerRouteCache.put(beiHuiProducer, mqEntity);
+        // 编译该生产者类的发送方法分派表
+        sendMethodTable.register(beiHuiProducer.getClass());
+    }
+
+    private static String routeKey(String pid, String rocketTopic) {
+        return pid + "/" + rocketTopic;
+    }
+
+    /**
+     * 执行本地事务并记录结果，broker回查时直接应答。
+     *
+     * @param message
+     * @param localTransactionArg 本次发送的本地事务执行器及调用方的参数
+     * @return
+     */
+    private LocalTransactionState execute(Message message, LocalTransactionArg localTransactionArg) {
+        TransactionStatus transactionStatus = localTransactionArg.getExecuter()
+                .execute(MessageUtils.toOnsMessage(message), localTransactionArg.getArg());
+        LocalTransactionState localTransactionState = toLocalTransactionState(transactionStatus);
+        transactionStateIndex.record(MessageClientIDSetter.getUniqID(message), message.getKeys(), localTransactionState);
+        return localTransactionState;
+    }
+
+    /**
+     * 回查本地事务状态，事务状态索引中有结果时直接应答，否则调用业务的回查并记录结果。
+     *
+     * @param mqEntity 消息所属的事务生产者实体
+     * @param messageExt
+     * @return
+     */
+    private LocalTransactionState check(MqEntity mqEntity, MessageExt messageExt) {
+        mqMetrics.counter("transaction." + mqEntity.getRocketTopic() + ".checks").increment();
+        LongAdder indexHits = mqMetrics.counter("transaction." + mqEntity.getRocketTopic() + ".indexHits");
+        LocalTransactionChecker localTransactionChecker = mqEntity.getSubTransactionProducerBean().getLocalTransactionChecker();
+        String transactionId = MessageClientIDSetter.getUniqID(messageExt);
+        LocalTransactionState localTransactionState = transactionStateIndex.lookup(transactionId, messageExt.getKeys());
+        if (localTransactionState != null) {
+            indexHits.increment();
+            return localTransactionState;
+        }
+        TransactionStatus transactionStatus = localTransactionChecker.check(MessageUtils.toOnsMessage(messageExt));
+        localTransactionState = toLocalTransactionState(transactionStatus);
+        transactionStateIndex.record(transactionId, messageExt.getKeys(), localTransactionState);
+        return localTransactionState;
+    }
+
+    /**
+     * 阿里云sdk的事务状态转为rocketMq的本地事务状态。
+     *
+     * @param transactionStatus
+     * @return
+     */
+    public static LocalTransactionState toLocalTransactionState(TransactionStatus transactionStatus) {
+        if (transactionStatus == null) {
+            return LocalTransactionState.UNKNOW;
+        }
+        switch (transactionStatus) {
+            case CommitTransaction:
+                return LocalTransactionState.COMMIT_MESSAGE;
+            case RollbackTransaction:
+                return LocalTransactionState.ROLLBACK_MESSAGE;
+            default:
+                return LocalTransactionState.UNKNOW;
+        }
+    }
+
+    /**
+     * 启动事务生产者。
+     *
+     * @param mqEntity
+     * @throws MQClientException
+     */
+    private void startProducer(MqEntity mqEntity) throws MQClientException {
+        try {
+            mqEntity.getTransactionMQProducer().start();
+        } finally {
+            mqEntity.setStarted(true);
+        }
+    }
+
+    /**
+     * 按生产者id和线下主题取得事务生产者实体。
      *
+     * @param pid
+     * @param rocketTopic
      * @return
      */
-    public MqEntity getMqProductorInfo(String pid) {
-        return this.mqEntityMap.get(pid);
+    public MqEntity getMqProductorInfo(String pid, String rocketTopic) {
+        return this.routeMap.get(routeKey(pid, rocketTopic));
     }
 
 
@@ -0,0 +1,203 @@
+package com.hsjry.plutus.sdk.mq;
+
+import com.hsjry.plutus.sdk.component.EnvComponent;
+import org.apache.rocketmq.client.producer.LocalTransactionState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 本地事务状态索引（开发和测试环境的线下事务消息）。
+ * 记录本地事务的提交/回滚结果，按事务id（消息的uniqId）和消息key索引，broker回查时能直接应答，不再调用业务的回查；
+ * 消息key只在回查消息没有事务id时使用。
+ * 超过条数上限时淘汰最早的记录；配置mq.transaction.index.dir时同时写入本地日志，重启后恢复。
+ *
+ * @author qyf
+ * @Date 2019/9/2
+ */
+@Component
+public class TransactionStateIndex {
+    Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private static final String FILE_NAME = "transaction.log";
+
+    /** 事务id的索引前缀 */
+    private static final String ID_PREFIX = "t:";
+
+    /** 消息key的索引前缀 */
+    private static final String KEY_PREFIX = "k:";
+
+    @Autowired
+    private EnvComponent envComponent;
+
+    /** 索引 -> 本地事务状态 */
+    private Map<String, LocalTransactionState> stateMap;
+
+    /** 本地日志，未开启时为null */
+    private File file;
+
+    private Writer writer;
+
+    /** 日志当前行数 */
+    private int lines;
+
+    @PostConstruct
+    public void init() {
+        int maxEntries = envComponent.getTransactionIndexMaxEntries();
+        this.stateMap = new StateMap(maxEntries);
+        if (envComponent.isProductEnv() || !StringUtils.hasText(envComponent.getTransactionIndexDir())) {
+            return;
+        }
+        File dir = new File(envComponent.getTransactionIndexDir());
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new RuntimeException("创建事务状态日志目录失败：" + dir);
+        }
+        this.file = new File(dir, FILE_NAME);
+        try {
+            this.replay();
+            this.compact();
+        } catch (IOException e) {
+            throw new RuntimeException("恢复事务状态日志失败：" + file, e);
+        }
+    }
+
+    /**
+     * 记录本地事务的结果，未知状态不记录。
+     *
+     * @param transactionId
+     * @param key           消息key，可为空
+     * @param state
+     */
+    public synchronized void record(String transactionId, String key, LocalTransactionState state) {
+        if (state == LocalTransactionState.UNKNOW) {
+            return;
+        }
+        if (StringUtils.hasText(transactionId)) {
+            this.put(ID_PREFIX + transactionId, state);
+        }
+        if (StringUtils.hasText(key)) {
+            this.put(KEY_PREFIX + key, state);
+        }
+    }
+
+    /**
+     * 查找本地事务的结果，有事务id时只按事务id查找；业务key可能被其他事务复用，只在没有事务id时才按消息key查找。
+     *
+     * @param transactionId
+     * @param key
+     * @return 未记录时为null
+     */
+    public synchronized LocalTransactionState lookup(String transactionId, String key) {
+        if (StringUtils.hasText(transactionId)) {
+            return stateMap.get(ID_PREFIX + transactionId);
+        }
+        if (StringUtils.hasText(key)) {
+            return stateMap.get(KEY_PREFIX + key);
+        }
+        return null;
+    }
+
+    private void put(String index, LocalTransactionState state) {
+        stateMap.remove(index);
+        stateMap.put(index, state);
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.write(state.name() + "\t" + index.replace('\n', ' ') + "\n");
+            writer.flush();
+            if (++lines > stateMap.size() * 2 + 1024) {
+                this.compact();
+            }
+        } catch (IOException e) {
+            // 只影响重启后的回查，回查时仍可调用业务的回查
+            logger.error("写事务状态日志失败：{}，e:{}", file, e);
+        }
+    }
+
+    /**
+     * 从日志恢复，格式不正确的行（如写了一半）忽略。
+     */
+    private void replay() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab <= 0) {
+                    continue;
+                }
+                try {
+                    String index = line.substring(tab + 1);
+                    stateMap.remove(index);
+                    stateMap.put(index, LocalTransactionState.valueOf(line.substring(0, tab)));
+                } catch (IllegalArgumentException e) {
+                    // 忽略
+                }
+            }
+        }
+    }
+
+    /**
+     * 按内存中的记录重写日志。
+     */
+    private void compact() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, LocalTransactionState> entry : stateMap.entrySet()) {
+                out.write(entry.getValue().name() + "\t" + entry.getKey() + "\n");
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.lines = stateMap.size();
+        this.writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+    }
+
+    @PreDestroy
+    public synchronized void destroy() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    /**
+     * 超过条数上限时淘汰最早记录的索引。
+     */
+    private static class StateMap extends LinkedHashMap<String, LocalTransactionState> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        private StateMap(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LocalTransactionState> eldest) {
+            return size() > maxEntries;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.hsjry.plutus.sdk.serializer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+
+/**
+ * Jackson流式序列化为JSON（UTF-8），直接写入复用缓冲区，不产生中间String。
+ *
+ * @author qyf
+ * @Date 2019/8/19
+ */
+public class JacksonMessageSerializer implements MessageSerializer {
+
+    private final ObjectMapper objectMapper;
+
+    public JacksonMessageSerializer() {
+        this(new ObjectMapper());
+    }
+
+    public JacksonMessageSerializer(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public byte[] serialize(Object payload) {
+        PooledOutputStream out = PooledOutputStream.acquire();
+        try {
+            objectMapper.writeValue(out, payload);
+        } catch (IOException e) {
+            throw new RuntimeException("消息序列化失败：" + payload.getClass().getName(), e);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public <T> T deserialize(byte[] body, Class<T> type) {
+        try {
+            return objectMapper.readValue(body, type);
+        } catch (IOException e) {
+            throw new RuntimeException("消息反序列化失败：" + type.getName(), e);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.hsjry.plutus.sdk.serializer;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.util.function.Supplier;
+
+/**
+ * Kryo序列化，需要业务系统引入kryo。
+ * Kryo实例及其输出缓冲区线程内复用；生产者和消费者须用相同的注册配置创建Kryo。
+ *
+ * @author qyf
+ * @Date 2019/8/19
+ */
+public class KryoMessageSerializer implements MessageSerializer {
+
+    /** 输出缓冲区初始容量 */
+    private static final int INITIAL_SIZE = 4 * 1024;
+
+    /** 输出缓冲区最大容量（不限） */
+    private static final int MAX_SIZE = -1;
+
+    /** 保留复用的最大容量 */
+    private static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+    private final ThreadLocal<Kryo> kryoPool;
+
+    private final ThreadLocal<Output> outputPool = ThreadLocal.withInitial(() -> new Output(INITIAL_SIZE, MAX_SIZE));
+
+    public KryoMessageSerializer() {
+        this(Kryo::new);
+    }
+
+    /**
+     * @param kryoFactory 创建Kryo（可在其中注册类型），每个线程调用一次
+     */
+    public KryoMessageSerializer(Supplier<Kryo> kryoFactory) {
+        this.kryoPool = ThreadLocal.withInitial(kryoFactory);
+    }
+
+    @Override
+    public byte[] serialize(Object payload) {
+        Output output = outputPool.get();
+        if (output.getBuffer().length > MAX_RETAINED_SIZE) {
+            output.setBuffer(new byte[INITIAL_SIZE], MAX_SIZE);
+        }
+        output.clear();
+        kryoPool.get().writeObject(output, payload);
+        return output.toBytes();
+    }
+
+    @Override
+    public <T> T deserialize(byte[] body, Class<T> type) {
+        return kryoPool.get().readObject(new Input(body), type);
+    }
+}
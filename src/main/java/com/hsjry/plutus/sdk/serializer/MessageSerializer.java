@@ -0,0 +1,30 @@
+package com.hsjry.plutus.sdk.serializer;
+
+/**
+ * 消息对象序列化。
+ * 生产者直接发送对象，序列化结果即消息体，不再先转成String再编码；消费端用同一实现反序列化。
+ * 实现类须线程安全。
+ *
+ * @author qyf
+ * @Date 2019/8/19
+ */
+public interface MessageSerializer {
+
+    /**
+     * 序列化为消息体
+     *
+     * @param payload
+     * @return
+     */
+    byte[] serialize(Object payload);
+
+    /**
+     * 由消息体反序列化
+     *
+     * @param body
+     * @param type
+     * @param <T>
+     * @return
+     */
+    <T> T deserialize(byte[] body, Class<T> type);
+}
@@ -0,0 +1,40 @@
+package com.hsjry.plutus.sdk.serializer;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * 线程内复用的序列化缓冲区。
+ * 序列化直接写入缓冲区，最后只按实际长度复制一次得到消息体；超大的缓冲区用完即丢弃，避免长期占用内存。
+ *
+ * @author qyf
+ * @Date 2019/8/19
+ */
+public final class PooledOutputStream extends ByteArrayOutputStream {
+
+    /** 初始容量 */
+    private static final int INITIAL_SIZE = 4 * 1024;
+
+    /** 保留复用的最大容量 */
+    private static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<PooledOutputStream> POOL = ThreadLocal.withInitial(PooledOutputStream::new);
+
+    private PooledOutputStream() {
+        super(INITIAL_SIZE);
+    }
+
+    /**
+     * 取得当前线程的缓冲区（已清空）。
+     * 同一线程内不能嵌套使用。
+     *
+     * @return
+     */
+    public static PooledOutputStream acquire() {
+        PooledOutputStream out = POOL.get();
+        if (out.buf.length > MAX_RETAINED_SIZE) {
+            out.buf = new byte[INITIAL_SIZE];
+        }
+        out.reset();
+        return out;
+    }
+}
@@ -0,0 +1,51 @@
+package com.hsjry.plutus.sdk.serializer;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Protobuf序列化，需要业务系统引入protobuf-java。
+ * 消息长度事先已知，直接写入按实际长度分配的数组，不需要再经过复用缓冲区。
+ *
+ * @author qyf
+ * @Date 2019/8/19
+ */
+public class ProtobufMessageSerializer implements MessageSerializer {
+
+    /**
+     * 消息类型 -> 解析器
+     */
+    private final Map<Class<?>, Parser<?>> parserMap = new ConcurrentHashMap<>();
+
+    @Override
+    public byte[] serialize(Object payload) {
+        if (!(payload instanceof MessageLite)) {
+            throw new RuntimeException("不是protobuf消息：" + payload.getClass().getName());
+        }
+        return ((MessageLite) payload).toByteArray();
+    }
+
+    @Override
+    public <T> T deserialize(byte[] body, Class<T> type) {
+        try {
+            return type.cast(parserMap.computeIfAbsent(type, ProtobufMessageSerializer::parser).parseFrom(body));
+        } catch (InvalidProtocolBufferException e) {
+            throw new RuntimeException("消息反序列化失败：" + type.getName(), e);
+        }
+    }
+
+    /**
+     * 通过生成类的getDefaultInstance()取得解析器。
+     */
+    private static Parser<?> parser(Class<?> type) {
+        try {
+            return ((MessageLite) type.getMethod("getDefaultInstance").invoke(null)).getParserForType();
+        } catch (Exception e) {
+            throw new RuntimeException("不是protobuf消息：" + type.getName(), e);
+        }
+    }
+}
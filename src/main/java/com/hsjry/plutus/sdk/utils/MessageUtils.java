@@ -0,0 +1,87 @@
+package com.hsjry.plutus.sdk.utils;
+
+import com.aliyun.openservices.ons.api.Message;
+import com.hsjry.plutus.sdk.mq.MessageExtView;
+import org.apache.rocketmq.common.message.MessageExt;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 消息工具类。
+ * 统一消息内容的字符集，以及阿里云sdk消息和rocketMq消息之间的转换（消息内容直接引用，不复制）。
+ *
+ * @author qyf
+ * @Date 2019/8/15
+ */
+public class MessageUtils {
+
+    /**
+     * 消息内容字符集，生产和消费统一使用UTF-8
+     */
+    public static final Charset CHARSET = StandardCharsets.UTF_8;
+
+    /**
+     * 消息内容编码为字节。
+     *
+     * @param content
+     * @return
+     */
+    public static byte[] encode(String content) {
+        return content.getBytes(CHARSET);
+    }
+
+    /**
+     * 消息内容解码为字符串。
+     *
+     * @param body
+     * @return
+     */
+    public static String decode(byte[] body) {
+        return new String(body, CHARSET);
+    }
+
+    /**
+     * ByteBuffer转为消息内容，缓冲区正好覆盖整个底层数组时直接使用该数组，否则复制剩余部分。
+     * 不改变缓冲区的position。
+     *
+     * @param buffer
+     * @return
+     */
+    public static byte[] toBytes(ByteBuffer buffer) {
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+                && buffer.remaining() == buffer.array().length) {
+            return buffer.array();
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * rocketMq的消息转为阿里云sdk的消息，消息内容直接引用broker返回的字节数组。
+     * broker返回的消息（MessageExt）转为视图，各属性在读取时才转换。
+     *
+     * @param msg
+     * @return
+     */
+    public static Message toOnsMessage(org.apache.rocketmq.common.message.Message msg) {
+        if (msg instanceof MessageExt) {
+            return new MessageExtView((MessageExt) msg);
+        }
+        Message message = new Message();
+        // 消息内容
+        message.setBody(msg.getBody());
+        // 消息主题
+        message.setTopic(msg.getTopic());
+        // 消息标签
+        if (msg.getTags() != null) {
+            message.setTag(msg.getTags());
+        }
+        if (msg.getKeys() != null) {
+            message.setKey(msg.getKeys());
+        }
+        return message;
+    }
+}
@@ -0,0 +1,108 @@
+package com.hsjry.plutus.sdk.aspect;
+
+import com.hsjry.plutus.sdk.jms.BaseProducer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 发送方法取参的基准测试：按方法名和参数反射解析（分派表之前的做法） vs 按Method查分派表。
+ * 依赖jmh，默认构建不编译，运行：mvn -Pjmh test-compile 后执行main方法。
+ *
+ * @author qyf
+ * @Date 2019/9/5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SendMethodTableBenchmark {
+
+    private SendMethodTable sendMethodTable;
+
+    /** 发送方法：sendMsg(String content, String tag, String keyId, int delayTime) */
+    private Method sendMethod;
+
+    /** 不是发送方法：getProperties() */
+    private Method otherMethod;
+
+    private Object[] args;
+
+    @Setup
+    public void setup() throws NoSuchMethodException {
+        sendMethodTable = new SendMethodTable();
+        sendMethodTable.init();
+        sendMethod = BaseProducer.class.getMethod("sendMsg", String.class, String.class, String.class, int.class);
+        otherMethod = BaseProducer.class.getMethod("getProperties");
+        args = new Object[]{"content", "tag", "key", 1};
+    }
+
+    @Benchmark
+    public void reflective(Blackhole blackhole) {
+        this.reflectiveDispatch(sendMethod, args, blackhole);
+    }
+
+    @Benchmark
+    public void table(Blackhole blackhole) {
+        SendMethodSpec spec = sendMethodTable.get(sendMethod);
+        blackhole.consume(spec.getBody(args));
+        blackhole.consume(spec.getTag(args));
+        blackhole.consume(spec.getKeyId(args));
+        blackhole.consume(spec.getDelayMillis(args));
+    }
+
+    @Benchmark
+    public void reflectiveNotSendMethod(Blackhole blackhole) {
+        this.reflectiveDispatch(otherMethod, new Object[0], blackhole);
+    }
+
+    @Benchmark
+    public SendMethodSpec tableNotSendMethod() {
+        return sendMethodTable.get(otherMethod);
+    }
+
+    /**
+     * 分派表之前的取参：每次按方法名、参数个数和参数类型判断参数位置。
+     */
+    private void reflectiveDispatch(Method method, Object[] args, Blackhole blackhole) {
+        String methodName = method.getName();
+        Class<?>[] types = method.getParameterTypes();
+        if (types.length == 0 || types[0] != String.class) {
+            return;
+        }
+        if ("sendMsg".equals(methodName) || "sendMsgAsy".equals(methodName) || "sendMsgOneway".equals(methodName)
+                || "sendMsgFuture".equals(methodName)) {
+            if (args.length == 3) {
+                blackhole.consume(((String) args[0]).getBytes(StandardCharsets.UTF_8));
+                blackhole.consume(args[1]);
+                blackhole.consume(TimeUnit.MINUTES.toMillis(((Number) args[2]).longValue()));
+            } else if (args.length == 4) {
+                blackhole.consume(((String) args[0]).getBytes(StandardCharsets.UTF_8));
+                blackhole.consume(args[1]);
+                blackhole.consume(args[2]);
+                blackhole.consume(TimeUnit.MINUTES.toMillis(((Number) args[3]).longValue()));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SendMethodTableBenchmark.class.getSimpleName()).build()).run();
+    }
+}